@@ -26,10 +26,17 @@ class JCommanderRuntimeReflectionRegistrationFeature implements Feature
 		RuntimeReflection.register(com.beust.jcommander.validators.NoValidator.class);
 		RuntimeReflection.registerForReflectiveInstantiation(com.beust.jcommander.validators.NoValidator.class);
 
+		RuntimeReflection.register(Settings.NoSplitter.class);
+		RuntimeReflection.registerForReflectiveInstantiation(Settings.NoSplitter.class);
+
 		try
 		{
 			RuntimeReflection.register(com.beust.jcommander.converters.BooleanConverter.class);
 			RuntimeReflection.register(com.beust.jcommander.converters.BooleanConverter.class.getConstructor(String.class));
+			RuntimeReflection.register(com.beust.jcommander.converters.IntegerConverter.class);
+			RuntimeReflection.register(com.beust.jcommander.converters.IntegerConverter.class.getConstructor(String.class));
+			RuntimeReflection.register(com.beust.jcommander.converters.LongConverter.class);
+			RuntimeReflection.register(com.beust.jcommander.converters.LongConverter.class.getConstructor(String.class));
 		}
 		catch (NoSuchMethodException | SecurityException e)
 		{
@@ -45,12 +52,14 @@ final class MainSubstituted
 	{
 	}
 
-	@SuppressWarnings("squid:S106") // Suppress Sonar warning "Replace this use of System.out or System.err by a logger."
+	/**
+	 * The java.nio.file.WatchService is not yet supported in GraalVM's native-image, so we poll for changes instead.
+	 * Please see bug https://github.com/oracle/graal/issues/1253.
+	 */
 	@Substitute
-	private static void watchDirectoriesForChanges()
+	private static boolean isWatchServiceSupported()
 	{
-		System.err.println("The java.nio.file.WatchService is not yet supported in GraalVM's native-image.");
-		System.err.println("Please see bug https://github.com/oracle/graal/issues/1253.");
+		return false;
 	}
 
 	@Substitute
@@ -0,0 +1,42 @@
+package org.jurr.pipetableformatter;
+
+import java.io.IOException;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks, always with the GC profiler enabled so the allocation rate is reported.
+ * All regular JMH command-line options are supported (run with <code>-h</code> to list them).
+ */
+@SuppressWarnings("squid:S106") // Suppress Sonar warning "Replace this use of System.out or System.err by a logger."
+public final class BenchmarkMain
+{
+	private BenchmarkMain()
+	{
+	}
+
+	public static void main(final String[] args) throws RunnerException, IOException
+	{
+		try
+		{
+			final CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+			if (commandLineOptions.shouldHelp())
+			{
+				commandLineOptions.showHelp();
+				return;
+			}
+
+			new Runner(new OptionsBuilder().parent(commandLineOptions).addProfiler(GCProfiler.class).build()).run();
+		}
+		catch (CommandLineOptionException e)
+		{
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,208 @@
+package org.jurr.pipetableformatter;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks formatting of files on disk.
+ * The <code>...Formatted</code> benchmarks measure the steady state, where (almost) all files are already formatted.
+ * The <code>...Unformatted</code> benchmarks restore the unformatted files before every invocation (outside of the measurement), so every invocation rewrites.
+ * Per file, only the file that is formatted next is restored; per directory, all of them.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PipeTableFormatterBenchmark
+{
+	@State(Scope.Benchmark)
+	public static class Corpus
+	{
+		@Param({ "100" })
+		int fileCount;
+
+		@Param({ "5" })
+		int tableCount;
+
+		@Param({ "20" })
+		int rowCount;
+
+		@Param({ "8" })
+		int columnCount;
+
+		@Param({ "12" })
+		int cellWidth;
+
+		@Param({ "0.5", "5" })
+		double proseRatio;
+
+		Path directory;
+		List<Path> files;
+		List<byte[]> unformattedContents;
+
+		@Setup(Level.Trial)
+		public void createCorpus() throws IOException
+		{
+			directory = Files.createTempDirectory("pipetableformatter-benchmark");
+			files = StoryCorpus.write(directory, fileCount, tableCount, rowCount, columnCount, cellWidth, proseRatio);
+			unformattedContents = new ArrayList<>(files.size());
+			for (Path file : files)
+			{
+				unformattedContents.add(Files.readAllBytes(file));
+			}
+		}
+
+		void restoreUnformatted() throws IOException
+		{
+			for (int i = 0; i < files.size(); i++)
+			{
+				Files.write(files.get(i), unformattedContents.get(i));
+			}
+		}
+
+		void formatAll()
+		{
+			final PipeTableFormatter pipeTableFormatter = new PipeTableFormatter();
+			files.forEach(pipeTableFormatter::pipeTablesInFile);
+		}
+
+		@TearDown(Level.Trial)
+		public void deleteCorpus() throws IOException
+		{
+			Files.walkFileTree(directory, new SimpleFileVisitor<Path>()
+			{
+				@Override
+				public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException
+				{
+					Files.delete(file);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult postVisitDirectory(final Path dir, final IOException exc) throws IOException
+				{
+					Files.delete(dir);
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class FormattedCorpus extends Corpus
+	{
+		@Setup(Level.Trial)
+		public void format()
+		{
+			formatAll();
+		}
+	}
+
+	/**
+	 * Restores all files before every invocation; only for the benchmarks that format all files in an invocation.
+	 */
+	@State(Scope.Benchmark)
+	public static class UnformattedCorpus extends Corpus
+	{
+		@Setup(Level.Invocation)
+		public void restore() throws IOException
+		{
+			restoreUnformatted();
+		}
+	}
+
+	/**
+	 * One formatter for all invocations, as in a long running process (like the watcher); it keeps its buffers from one file to the next.
+	 */
+	@State(Scope.Benchmark)
+	public static class Formatter
+	{
+		final PipeTableFormatter pipeTableFormatter = new PipeTableFormatter();
+	}
+
+	/**
+	 * Rotates through the files of the corpus, so the sample time is the time per file.
+	 */
+	@State(Scope.Thread)
+	public static class FileCursor
+	{
+		private int index;
+
+		Path next(final Corpus corpus)
+		{
+			index = (index + 1) % corpus.files.size();
+			return corpus.files.get(index);
+		}
+	}
+
+	@Benchmark
+	public void pipeTablesInFileFormatted(final FormattedCorpus corpus, final FileCursor cursor, final Formatter formatter)
+	{
+		formatter.pipeTableFormatter.pipeTablesInFile(cursor.next(corpus));
+	}
+
+	/**
+	 * Rotates through the files of the corpus like {@link FileCursor}, and restores the unformatted content of the file it is about to return (outside of the measurement).
+	 * Writing only that one small file keeps the setup, and the writeback it leaves behind, small next to the measured invocation.
+	 */
+	@State(Scope.Thread)
+	public static class UnformattedFileCursor
+	{
+		private int index;
+		private Path file;
+
+		@Setup(Level.Invocation)
+		public void restoreNext(final Corpus corpus) throws IOException
+		{
+			index = (index + 1) % corpus.files.size();
+			file = corpus.files.get(index);
+			Files.write(file, corpus.unformattedContents.get(index));
+		}
+
+		Path next()
+		{
+			return file;
+		}
+	}
+
+	@Benchmark
+	public void pipeTablesInFileUnformatted(final UnformattedFileCursor cursor, final Formatter formatter)
+	{
+		formatter.pipeTableFormatter.pipeTablesInFile(cursor.next());
+	}
+
+	@Benchmark
+	public void pipeTablesInDirectoriesFormatted(final FormattedCorpus corpus, final Formatter formatter)
+	{
+		formatter.pipeTableFormatter.pipeTablesInDirectories(Collections.singletonList(corpus.directory), "*.story");
+	}
+
+	@Benchmark
+	public void pipeTablesInDirectoriesUnformatted(final UnformattedCorpus corpus, final Formatter formatter)
+	{
+		formatter.pipeTableFormatter.pipeTablesInDirectories(Collections.singletonList(corpus.directory), "*.story");
+	}
+}
@@ -0,0 +1,113 @@
+package org.jurr.pipetableformatter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates JBehave-like stories to feed the benchmarks.
+ * The tables are sloppily padded, so every table in a generated story needs formatting.
+ */
+final class StoryCorpus
+{
+	private static final String[] WORDS = { "Given", "When", "Then", "And", "the", "a", "customer", "places", "order", "with", "amount", "status", "is", "shipped", "example", "value" };
+	private static final String CELL_CHARACTERS = "abcdefghijklmnopqrstuvwxyz0123456789 -_.,";
+
+	private StoryCorpus()
+	{
+	}
+
+	/**
+	 * @param tableCount the number of tables in the story
+	 * @param rowCount the number of rows per table
+	 * @param columnCount the number of columns per table
+	 * @param cellWidth the maximum number of characters in a cell
+	 * @param proseRatio the number of prose lines per table line; there will always be at least one prose line between two tables
+	 * @param seed the seed, so the same parameters always give the same story
+	 */
+	static String generate(final int tableCount, final int rowCount, final int columnCount, final int cellWidth, final double proseRatio, final long seed)
+	{
+		final Random random = new Random(seed);
+		final StringBuilder sb = new StringBuilder();
+		final int proseLinesPerTable = Math.max(1, (int) Math.round(proseRatio * rowCount));
+
+		for (int t = 0; t < tableCount; t++)
+		{
+			appendProse(sb, random, proseLinesPerTable);
+			appendTable(sb, random, rowCount, columnCount, cellWidth);
+		}
+		appendProse(sb, random, 1);
+
+		return sb.toString();
+	}
+
+	/**
+	 * Writes <code>fileCount</code> stories into <code>directory</code>, spread over a few subdirectories.
+	 */
+	static List<Path> write(final Path directory, final int fileCount, final int tableCount, final int rowCount, final int columnCount, final int cellWidth, final double proseRatio) throws IOException
+	{
+		final List<Path> result = new ArrayList<>(fileCount);
+		for (int i = 0; i < fileCount; i++)
+		{
+			final Path subDirectory = directory.resolve("stories" + (i % 10));
+			Files.createDirectories(subDirectory);
+
+			final Path storyFile = subDirectory.resolve("story" + i + ".story");
+			final String story = generate(tableCount, rowCount, columnCount, cellWidth, proseRatio, i);
+			Files.write(storyFile, story.getBytes(StandardCharsets.UTF_8));
+			result.add(storyFile);
+		}
+		return result;
+	}
+
+	private static void appendProse(final StringBuilder sb, final Random random, final int lineCount)
+	{
+		for (int l = 0; l < lineCount; l++)
+		{
+			final int wordCount = 3 + random.nextInt(10);
+			for (int w = 0; w < wordCount; w++)
+			{
+				if (w > 0)
+				{
+					sb.append(' ');
+				}
+				sb.append(WORDS[random.nextInt(WORDS.length)]);
+			}
+			sb.append(System.lineSeparator());
+		}
+	}
+
+	private static void appendTable(final StringBuilder sb, final Random random, final int rowCount, final int columnCount, final int cellWidth)
+	{
+		for (int r = 0; r < rowCount; r++)
+		{
+			appendSpaces(sb, random.nextInt(3));
+			sb.append('|');
+			for (int c = 0; c < columnCount; c++)
+			{
+				appendSpaces(sb, random.nextInt(3));
+				final int length = 1 + random.nextInt(cellWidth);
+				for (int i = 0; i < length; i++)
+				{
+					sb.append(CELL_CHARACTERS.charAt(random.nextInt(CELL_CHARACTERS.length())));
+				}
+				appendSpaces(sb, random.nextInt(3));
+				sb.append('|');
+			}
+			appendSpaces(sb, random.nextInt(3));
+			sb.append(System.lineSeparator());
+		}
+	}
+
+	private static void appendSpaces(final StringBuilder sb, final int count)
+	{
+		for (int i = 0; i < count; i++)
+		{
+			sb.append(' ');
+		}
+	}
+}
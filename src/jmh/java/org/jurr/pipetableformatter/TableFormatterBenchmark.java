@@ -0,0 +1,100 @@
+package org.jurr.pipetableformatter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TableFormatterBenchmark
+{
+	@Param({ "1", "20" })
+	private int tableCount;
+
+	@Param({ "10", "500" })
+	private int rowCount;
+
+	@Param({ "5", "60" })
+	private int columnCount;
+
+	@Param({ "4", "32" })
+	private int cellWidth;
+
+	@Param({ "0.1", "10" })
+	private double proseRatio;
+
+	private String story;
+	private PrintStream ps;
+	private StringBuilder output;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		story = StoryCorpus.generate(tableCount, rowCount, columnCount, cellWidth, proseRatio, 42);
+		ps = new PrintStream(new NullOutputStream(), false, StandardCharsets.UTF_8.name());
+		output = new StringBuilder(story.length());
+	}
+
+	@Benchmark
+	public void formatReader() throws IOException
+	{
+		final TableFormatter tableFormatter = new TableFormatter(ps);
+		tableFormatter.format(new StringReader(story));
+		tableFormatter.close();
+	}
+
+	@Benchmark
+	public void formatString()
+	{
+		final TableFormatter tableFormatter = new TableFormatter(ps);
+		tableFormatter.format(story);
+		tableFormatter.close();
+	}
+
+	@Benchmark
+	public StringBuilder formatCharSequenceToStringBuilder() throws IOException
+	{
+		output.setLength(0);
+		final TableFormatter tableFormatter = new TableFormatter(output);
+		tableFormatter.format(story, 0, story.length());
+		tableFormatter.close();
+		return output;
+	}
+
+	/**
+	 * Discards everything, so we measure the formatter and not the growing of an output buffer.
+	 */
+	static final class NullOutputStream extends OutputStream
+	{
+		@Override
+		public void write(final int b)
+		{
+			// Discard
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len)
+		{
+			// Discard
+		}
+	}
+}
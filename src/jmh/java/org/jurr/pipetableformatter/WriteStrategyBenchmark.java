@@ -0,0 +1,83 @@
+package org.jurr.pipetableformatter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks rewriting a directory of unformatted files with every {@link WriteStrategy}, with and without syncing to disk.
+ * The files are restored before every invocation (outside of the measurement), so every invocation rewrites all of them.
+ * <p>
+ * The files of the corpus are smaller than {@link Reflinks#MIN_IDENTICAL_BYTES}, so <code>REFLINK</code> writes them like <code>RENAME</code> does, and starts no <code>cp</code> for them.
+ * What a reflink costs on top of that is measured by <code>reflinkProcess</code>: starting one <code>cp</code> for one file.
+ * Where the file system of the temporary directory does not support reflinks, that still measures starting <code>cp</code>, which then fails.
+ */
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteStrategyBenchmark
+{
+	@State(Scope.Benchmark)
+	public static class Strategy
+	{
+		@Param({ "RENAME", "IN_PLACE", "REFLINK" })
+		WriteStrategy writeStrategy;
+
+		@Param({ "false", "true" })
+		boolean sync;
+	}
+
+	/**
+	 * A file to make reflinks to, next to the story files.
+	 */
+	@State(Scope.Thread)
+	public static class ReflinkTarget
+	{
+		Path file;
+
+		@Setup(Level.Trial)
+		public void create(final PipeTableFormatterBenchmark.FormattedCorpus corpus) throws IOException
+		{
+			file = Files.createTempFile(corpus.directory, "reflink", ".tmp");
+		}
+
+		@TearDown(Level.Trial)
+		public void delete() throws IOException
+		{
+			Files.deleteIfExists(file);
+		}
+	}
+
+	@Benchmark
+	public void pipeTablesInDirectoriesUnformatted(final PipeTableFormatterBenchmark.UnformattedCorpus corpus, final Strategy strategy)
+	{
+		final PipeTableFormatter pipeTableFormatter = new PipeTableFormatter();
+		pipeTableFormatter.setWriteStrategy(strategy.writeStrategy);
+		pipeTableFormatter.setSync(strategy.sync);
+		pipeTableFormatter.pipeTablesInDirectories(Collections.singletonList(corpus.directory), "*.story");
+	}
+
+	@Benchmark
+	public boolean reflinkProcess(final PipeTableFormatterBenchmark.FormattedCorpus corpus, final ReflinkTarget target) throws IOException
+	{
+		return Reflinks.reflink(corpus.files.get(0), target.file);
+	}
+}
@@ -0,0 +1,198 @@
+package org.jurr.pipetableformatter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Compares everything that is written to it with the original content, and only starts writing once the output differs.
+ * At that point, the target is opened, the part of the original that was identical is copied into it, and everything after that is passed on.
+ * So when the output turns out to be identical to the original, nothing is buffered and nothing is written at all.
+ */
+final class ChangeDetectingOutputStream extends OutputStream
+{
+	/**
+	 * The size of the chunks in which we copy the identical part from originals that are not backed by an array.
+	 */
+	private static final int TRANSFER_BUFFER_SIZE = 8192;
+
+	/**
+	 * Opens the stream that the output should go to, once we know it differs from the original.
+	 */
+	interface Target
+	{
+		OutputStream open() throws IOException;
+
+		/**
+		 * Opens the target right after the identical part of the original, when the target already holds it (or can get it cheaper than by writing it).
+		 *
+		 * @param identical the identical part of the original, between its position and its limit
+		 * @return the stream for the rest of the output, or <code>null</code> when the identical part should be written to {@link #open()} instead
+		 */
+		default OutputStream openAfter(final ByteBuffer identical) throws IOException
+		{
+			return null;
+		}
+	}
+
+	private final ByteBuffer original;
+	private final int originalStart;
+	private final int originalLength;
+	private final Target target;
+
+	/**
+	 * The number of bytes written so far, as long as they are identical to the original.
+	 */
+	private int position;
+
+	/**
+	 * The opened target, or <code>null</code> as long as the output is identical to the original.
+	 */
+	private OutputStream out;
+
+	/**
+	 * The time spent in {@link #write(byte[], int, int)} comparing, and writing. Single bytes are not timed.
+	 */
+	private long compareNanos;
+	private long writeNanos;
+	private long bytesWritten;
+
+	/**
+	 * @param original the bytes between the position and the limit of this buffer are compared to the output
+	 */
+	ChangeDetectingOutputStream(final ByteBuffer original, final Target target)
+	{
+		this.original = original;
+		this.originalStart = original.position();
+		this.originalLength = original.remaining();
+		this.target = target;
+	}
+
+	@Override
+	public void write(final int b) throws IOException
+	{
+		if (out == null)
+		{
+			if (position < originalLength && original.get(originalStart + position) == (byte) b)
+			{
+				position++;
+				return;
+			}
+			openTarget();
+		}
+		out.write(b);
+		bytesWritten++;
+	}
+
+	@Override
+	public void write(final byte[] b, final int off, final int len) throws IOException
+	{
+		final long start = System.nanoTime();
+		int identical = 0;
+		if (out == null)
+		{
+			final int comparable = Math.min(len, originalLength - position);
+			while (identical < comparable && original.get(originalStart + position + identical) == b[off + identical])
+			{
+				identical++;
+			}
+			position += identical;
+
+			if (identical == len)
+			{
+				compareNanos += System.nanoTime() - start;
+				return;
+			}
+			openTarget();
+		}
+		out.write(b, off + identical, len - identical);
+		bytesWritten += len - identical;
+		writeNanos += System.nanoTime() - start;
+	}
+
+	/**
+	 * Call this after all output is written.
+	 *
+	 * @return whether the output differs from the original. If so, the complete output has been written to the target.
+	 */
+	boolean finish() throws IOException
+	{
+		if (out == null && position != originalLength)
+		{
+			// The output is a prefix of the original
+			openTarget();
+		}
+
+		if (out != null)
+		{
+			out.flush();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * @return the time spent comparing the output to the original, in nanoseconds
+	 */
+	long getCompareNanos()
+	{
+		return compareNanos;
+	}
+
+	/**
+	 * @return the time spent writing to the target (including copying the identical part), in nanoseconds
+	 */
+	long getWriteNanos()
+	{
+		return writeNanos;
+	}
+
+	/**
+	 * @return the number of bytes written to the target
+	 */
+	long getBytesWritten()
+	{
+		return bytesWritten;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		if (out != null)
+		{
+			out.close();
+		}
+	}
+
+	private void openTarget() throws IOException
+	{
+		final ByteBuffer identical = original.duplicate();
+		((Buffer) identical).position(originalStart).limit(originalStart + position);
+		out = target.openAfter(identical.slice());
+		if (out != null)
+		{
+			return;
+		}
+
+		out = target.open();
+		bytesWritten += position;
+
+		if (original.hasArray())
+		{
+			out.write(original.array(), original.arrayOffset() + originalStart, position);
+			return;
+		}
+
+		final byte[] transferBuffer = new byte[Math.min(TRANSFER_BUFFER_SIZE, Math.max(position, 1))];
+		for (int copied = 0; copied < position; copied += transferBuffer.length)
+		{
+			final int length = Math.min(transferBuffer.length, position - copied);
+			for (int i = 0; i < length; i++)
+			{
+				transferBuffer[i] = original.get(originalStart + copied + i);
+			}
+			out.write(transferBuffer, 0, length);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+package org.jurr.pipetableformatter;
+
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Collects the paths that changed, and hands them to a fixed number of worker threads once they did not change for the debounce time.
+ * <p>
+ * All changes to the same path within the debounce time are coalesced into one call of the action; so saving a file, which often gives several events, formats it once.
+ * The same path is never handed to two workers at the same time. When it changes while a worker is busy with it, it is handed out again afterwards.
+ */
+final class ChangeQueue
+{
+	private final long debounceNanos;
+	private final Consumer<Path> action;
+	private final Thread[] workers;
+
+	/**
+	 * The paths that are waiting for their debounce time to pass, with the {@link System#nanoTime()} at which it does.
+	 * They are in the order in which they changed last, so also in the order of their due times. Guarded by <code>this</code>.
+	 */
+	private final Map<Path, Long> pending;
+
+	/**
+	 * The paths that a worker is busy with. Guarded by <code>this</code>.
+	 */
+	private final Set<Path> inProgress;
+	private boolean closed;
+
+	/**
+	 * Starts the worker threads, as daemon threads.
+	 */
+	ChangeQueue(final int workerCount, final long debounceMillis, final Consumer<Path> action)
+	{
+		if (workerCount < 1)
+		{
+			throw new IllegalArgumentException("Need at least one worker, not " + workerCount);
+		}
+		if (debounceMillis < 0)
+		{
+			throw new IllegalArgumentException("The debounce time can not be negative, but is " + debounceMillis);
+		}
+
+		this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+		this.action = action;
+		pending = new LinkedHashMap<>();
+		inProgress = new HashSet<>();
+
+		workers = new Thread[workerCount];
+		for (int i = 0; i < workerCount; i++)
+		{
+			workers[i] = new Thread(this::work, "pipe-table-formatter-watch-worker-" + i);
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Tells the queue that the path changed. It is handed to a worker when it does not change again for the debounce time.
+	 */
+	synchronized void changed(final Path path)
+	{
+		if (closed)
+		{
+			return;
+		}
+
+		// Remove first, so the path moves to the end
+		pending.remove(path);
+		pending.put(path, System.nanoTime() + debounceNanos);
+		notifyAll();
+	}
+
+	/**
+	 * Drops the paths that are still waiting, and waits for the workers to finish the paths they are busy with.
+	 */
+	void close() throws InterruptedException
+	{
+		synchronized (this)
+		{
+			closed = true;
+			pending.clear();
+			notifyAll();
+		}
+
+		for (Thread worker : workers)
+		{
+			worker.join();
+		}
+	}
+
+	private void work()
+	{
+		try
+		{
+			Path path;
+			while ((path = take()) != null)
+			{
+				try
+				{
+					action.accept(path);
+				}
+				finally
+				{
+					done(path);
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Waits for a path whose debounce time passed, and that no other worker is busy with.
+	 *
+	 * @return the path, or <code>null</code> when the queue was closed
+	 */
+	private synchronized Path take() throws InterruptedException
+	{
+		while (!closed)
+		{
+			long waitNanos = 0;
+			final long now = System.nanoTime();
+			final Iterator<Map.Entry<Path, Long>> iterator = pending.entrySet().iterator();
+			while (iterator.hasNext())
+			{
+				final Map.Entry<Path, Long> entry = iterator.next();
+				if (inProgress.contains(entry.getKey()))
+				{
+					continue;
+				}
+
+				final long remainingNanos = entry.getValue() - now;
+				if (remainingNanos <= 0)
+				{
+					iterator.remove();
+					inProgress.add(entry.getKey());
+					return entry.getKey();
+				}
+
+				// The paths after this one are due even later
+				waitNanos = remainingNanos;
+				break;
+			}
+
+			if (waitNanos > 0)
+			{
+				TimeUnit.NANOSECONDS.timedWait(this, waitNanos);
+			}
+			else
+			{
+				wait();
+			}
+		}
+		return null;
+	}
+
+	private synchronized void done(final Path path)
+	{
+		inProgress.remove(path);
+		notifyAll();
+	}
+}
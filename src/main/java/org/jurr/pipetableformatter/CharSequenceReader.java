@@ -0,0 +1,65 @@
+package org.jurr.pipetableformatter;
+
+import java.io.Reader;
+import java.nio.CharBuffer;
+
+/**
+ * A {@link Reader} over a range of a {@link CharSequence}. Unlike {@link java.io.StringReader}, this does not need a String.
+ */
+final class CharSequenceReader extends Reader
+{
+	private final CharSequence text;
+	private final int end;
+	private int position;
+
+	CharSequenceReader(final CharSequence text, final int start, final int end)
+	{
+		if (start < 0 || end > text.length() || start > end)
+		{
+			throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") is not within [0, " + text.length() + ")");
+		}
+
+		this.text = text;
+		this.position = start;
+		this.end = end;
+	}
+
+	@Override
+	public int read(final char[] cbuf, final int off, final int len)
+	{
+		if (position >= end)
+		{
+			return -1;
+		}
+
+		final int count = Math.min(len, end - position);
+		if (text instanceof String)
+		{
+			((String) text).getChars(position, position + count, cbuf, off);
+		}
+		else if (text instanceof StringBuilder)
+		{
+			((StringBuilder) text).getChars(position, position + count, cbuf, off);
+		}
+		else if (text instanceof CharBuffer && ((CharBuffer) text).hasArray())
+		{
+			final CharBuffer buffer = (CharBuffer) text;
+			System.arraycopy(buffer.array(), buffer.arrayOffset() + buffer.position() + position, cbuf, off, count);
+		}
+		else
+		{
+			for (int i = 0; i < count; i++)
+			{
+				cbuf[off + i] = text.charAt(position + i);
+			}
+		}
+		position += count;
+		return count;
+	}
+
+	@Override
+	public void close()
+	{
+		// Nothing to close
+	}
+}
@@ -0,0 +1,405 @@
+package org.jurr.pipetableformatter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.beust.jcommander.JCommander;
+import com.beust.jcommander.ParameterException;
+
+/**
+ * Keeps a warmed up JVM around, that formats on behalf of clients; see {@link #request(Path, String[])}.
+ * <p>
+ * The daemon listens on a TCP port of the loopback address. It publishes the port, together with a random secret, in the daemon file, which only the current user can read.
+ * A client sends the secret, its working directory and its command-line arguments. The daemon sends back the output, and finally the exit code.
+ * Requests are served concurrently. The daemon stops when it did not serve any request for the idle timeout.
+ * <p>
+ * What is worth keeping stays resident between requests: the {@link FormatterPool} (with the buffers of its contexts) for every number of threads that was asked for, and every cache that was loaded.
+ * Requests with the same number of threads share the formatting permits, so together they don't format with more threads than that.
+ */
+@SuppressWarnings("squid:S106") // Suppress Sonar warning "Replace this use of System.out or System.err by a logger."
+final class Daemon
+{
+	static final int DEFAULT_IDLE_TIMEOUT_SECONDS = 30 * 60;
+
+	private static final String PROTOCOL = "pipe-table-formatter-daemon/1";
+	private static final byte STDOUT = 'o';
+	private static final byte STDERR = 'e';
+	private static final byte EXIT = 'x';
+
+	private static final int SECRET_LENGTH = 16;
+	private static final SecureRandom RANDOM = new SecureRandom();
+	private static final int MAX_ARGUMENTS = 4096;
+
+	/**
+	 * How often the daemon checks whether it has been idle for too long.
+	 */
+	private static final int ACCEPT_TIMEOUT_MILLIS = 1000;
+
+	/**
+	 * How long a client may take to connect to, and send its request to, the daemon.
+	 */
+	private static final int REQUEST_TIMEOUT_MILLIS = 5000;
+
+	private final Path daemonFile;
+	private final long idleTimeoutMillis;
+	private final AtomicInteger activeRequests;
+	private final FormatStats stats;
+	private final Map<Integer, FormatterPool> formatterPools;
+
+	/**
+	 * The caches that were loaded, by the absolute path of their cache file.
+	 */
+	private final Map<Path, FormatCache> caches;
+	private volatile long lastActivityMillis;
+
+	Daemon(final Path daemonFile, final int idleTimeoutSeconds)
+	{
+		this.daemonFile = daemonFile;
+		this.idleTimeoutMillis = TimeUnit.SECONDS.toMillis(idleTimeoutSeconds);
+		activeRequests = new AtomicInteger();
+		stats = new FormatStats();
+		formatterPools = new ConcurrentHashMap<>();
+		caches = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * @return the statistics of all requests together
+	 */
+	FormatStats getStats()
+	{
+		return stats;
+	}
+
+	static Path getDefaultDaemonFile()
+	{
+		return Paths.get(System.getProperty("user.home"), ".pipe-table-formatter-daemon");
+	}
+
+	/**
+	 * Serves requests until the daemon has been idle for the idle timeout.
+	 */
+	void run() throws IOException
+	{
+		final String secret = newSecret();
+		final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+			final Thread thread = new Thread(runnable, "pipe-table-formatter-daemon");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		try (ServerSocket serverSocket = new ServerSocket(0, 0, InetAddress.getLoopbackAddress()))
+		{
+			serverSocket.setSoTimeout(ACCEPT_TIMEOUT_MILLIS);
+			publish(serverSocket.getLocalPort(), secret);
+			System.out.println("Daemon listening on port " + serverSocket.getLocalPort() + ". It stops after " + TimeUnit.MILLISECONDS.toSeconds(idleTimeoutMillis) + " idle seconds.");
+
+			lastActivityMillis = System.currentTimeMillis();
+			while (activeRequests.get() > 0 || System.currentTimeMillis() - lastActivityMillis < idleTimeoutMillis)
+			{
+				final Socket socket;
+				try
+				{
+					socket = serverSocket.accept();
+				}
+				catch (SocketTimeoutException e)
+				{
+					continue;
+				}
+
+				activeRequests.incrementAndGet();
+				executor.execute(() -> serve(socket, secret));
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+			unpublish(secret);
+		}
+	}
+
+	private void serve(final Socket socket, final String secret)
+	{
+		try (Socket s = socket;
+				DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream())))
+		{
+			s.setSoTimeout(REQUEST_TIMEOUT_MILLIS);
+			if (!PROTOCOL.equals(in.readUTF()) || !MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8), in.readUTF().getBytes(StandardCharsets.UTF_8)))
+			{
+				// Not one of our clients
+				return;
+			}
+
+			final Path workingDirectory = Paths.get(in.readUTF());
+			final int argumentCount = in.readInt();
+			if (argumentCount < 0 || argumentCount > MAX_ARGUMENTS)
+			{
+				return;
+			}
+			final String[] arguments = new String[argumentCount];
+			for (int i = 0; i < argumentCount; i++)
+			{
+				arguments[i] = in.readUTF();
+			}
+
+			final PrintStream stdout = new PrintStream(new FrameOutputStream(out, STDOUT), true, StandardCharsets.UTF_8.name());
+			final PrintStream stderr = new PrintStream(new FrameOutputStream(out, STDERR), true, StandardCharsets.UTF_8.name());
+			final int exitCode = execute(workingDirectory, arguments, stdout, stderr);
+			stdout.flush();
+			stderr.flush();
+
+			synchronized (out)
+			{
+				out.writeByte(EXIT);
+				out.writeInt(exitCode);
+				out.flush();
+			}
+		}
+		catch (IOException e)
+		{
+			// The client went away; there is nobody left to tell
+		}
+		finally
+		{
+			lastActivityMillis = System.currentTimeMillis();
+			activeRequests.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Does what {@link Main} would do with the arguments, in the working directory.
+	 *
+	 * @return the exit code
+	 */
+	private int execute(final Path workingDirectory, final String[] arguments, final PrintStream out, final PrintStream err)
+	{
+		final Settings settings = new Settings();
+		settings.setWorkingDirectory(workingDirectory);
+
+		final JCommander jCommander = JCommander.newBuilder().addObject(settings).build();
+		try
+		{
+			jCommander.parse(arguments);
+		}
+		catch (ParameterException e)
+		{
+			err.println(e.getLocalizedMessage());
+			return Main.EXIT_CMDLINE_INVALID;
+		}
+
+		if (settings.isHelp())
+		{
+			final StringBuilder usage = new StringBuilder();
+			jCommander.getUsageFormatter().usage(usage);
+			out.print(usage);
+			return Main.EXIT_OK;
+		}
+
+		String error = Main.validate(settings);
+		if (error == null && (settings.isWatch() || settings.isDaemon() || settings.isFilter()))
+		{
+			error = "The daemon can not watch for changes, filter, or start another daemon";
+		}
+		if (error != null)
+		{
+			err.println(error);
+			return Main.EXIT_CMDLINE_INVALID;
+		}
+
+		try
+		{
+			final PipeTableFormatter pipeTableFormatter = new PipeTableFormatter();
+			Main.configure(pipeTableFormatter, settings);
+			pipeTableFormatter.setFormatterPool(formatterPools.computeIfAbsent(settings.getThreads(), FormatterPool::new));
+
+			final Path cacheFile = settings.getCacheFile();
+			final FormatCache cache = cacheFile == null ? null : caches.computeIfAbsent(cacheFile.toAbsolutePath().normalize(), FormatCache::load);
+			return Main.formatOnce(settings, pipeTableFormatter, cache, out, stats);
+		}
+		catch (RuntimeException e)
+		{
+			err.println("Error: " + e);
+			return Main.EXIT_CMDLINE_INVALID;
+		}
+	}
+
+	/**
+	 * Lets the daemon that published itself in the daemon file do what {@link Main} would do with the arguments, in our working directory.
+	 * Its output is written to our {@link System#out} and {@link System#err}.
+	 *
+	 * @return the exit code, or <code>null</code> when no daemon is running
+	 */
+	static Integer request(final Path daemonFile, final String[] arguments)
+	{
+		final List<String> lines;
+		final int port;
+		try
+		{
+			lines = Files.readAllLines(daemonFile, StandardCharsets.UTF_8);
+			if (lines.size() < 2)
+			{
+				return null;
+			}
+			port = Integer.parseInt(lines.get(0));
+		}
+		catch (NoSuchFileException | NumberFormatException e)
+		{
+			return null;
+		}
+		catch (IOException e)
+		{
+			throw new PipeTableFormatterException("Error while reading daemon file " + daemonFile, e);
+		}
+
+		try (Socket socket = new Socket())
+		{
+			try
+			{
+				socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), REQUEST_TIMEOUT_MILLIS);
+			}
+			catch (IOException e)
+			{
+				// The daemon stopped without cleaning up its daemon file
+				return null;
+			}
+
+			final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			out.writeUTF(PROTOCOL);
+			out.writeUTF(lines.get(1));
+			out.writeUTF(Paths.get("").toAbsolutePath().toString());
+			out.writeInt(arguments.length);
+			for (String argument : arguments)
+			{
+				out.writeUTF(argument);
+			}
+			out.flush();
+
+			final DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			while (true)
+			{
+				final byte type = in.readByte();
+				if (type == EXIT)
+				{
+					System.out.flush();
+					System.err.flush();
+					return in.readInt();
+				}
+
+				final byte[] bytes = new byte[in.readInt()];
+				in.readFully(bytes);
+				(type == STDERR ? System.err : System.out).write(bytes);
+			}
+		}
+		catch (IOException e)
+		{
+			throw new PipeTableFormatterException("Lost the connection to the daemon", e);
+		}
+	}
+
+	private void publish(final int port, final String secret) throws IOException
+	{
+		// On POSIX file systems, temporary files are only readable by their owner; so only we can read the secret
+		final Path tempFile = PipeTableFormatter.createTempFileFor(daemonFile.toAbsolutePath());
+		try
+		{
+			Files.write(tempFile, (port + System.lineSeparator() + secret + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+			Files.move(tempFile, daemonFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		}
+		finally
+		{
+			Files.deleteIfExists(tempFile);
+		}
+	}
+
+	/**
+	 * Deletes the daemon file, unless another daemon has published itself in it since.
+	 */
+	private void unpublish(final String secret) throws IOException
+	{
+		try
+		{
+			final List<String> lines = Files.readAllLines(daemonFile, StandardCharsets.UTF_8);
+			if (lines.size() >= 2 && lines.get(1).equals(secret))
+			{
+				Files.delete(daemonFile);
+			}
+		}
+		catch (NoSuchFileException e)
+		{
+			// Somebody else cleaned up already
+		}
+	}
+
+	private static String newSecret()
+	{
+		final byte[] secret = new byte[SECRET_LENGTH];
+		RANDOM.nextBytes(secret);
+		return FormatCache.toHex(secret);
+	}
+
+	/**
+	 * Sends everything that is written to it as frames of the given type.
+	 */
+	private static final class FrameOutputStream extends OutputStream
+	{
+		private final DataOutputStream out;
+		private final byte type;
+
+		FrameOutputStream(final DataOutputStream out, final byte type)
+		{
+			this.out = out;
+			this.type = type;
+		}
+
+		@Override
+		public void write(final int b) throws IOException
+		{
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException
+		{
+			synchronized (out)
+			{
+				out.writeByte(type);
+				out.writeInt(len);
+				out.write(b, off, len);
+			}
+		}
+
+		@Override
+		public void flush() throws IOException
+		{
+			synchronized (out)
+			{
+				out.flush();
+			}
+		}
+	}
+}
@@ -0,0 +1,49 @@
+package org.jurr.pipetableformatter;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects the directories in which files were replaced, so each of them is synced to disk once, however many files were replaced in it.
+ * Only after a directory is synced, a rename in it survives a crash. This class is thread-safe.
+ */
+final class DirectorySync
+{
+	private final Set<Path> directories = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Remembers that the directory of the file needs to be synced.
+	 */
+	void add(final Path file)
+	{
+		final Path directory = file.toAbsolutePath().getParent();
+		if (directory != null)
+		{
+			directories.add(directory);
+		}
+	}
+
+	/**
+	 * Syncs the directories that were added since the last call.
+	 */
+	void syncAll() throws IOException
+	{
+		for (Path directory : directories)
+		{
+			directories.remove(directory);
+			try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ))
+			{
+				channel.force(true);
+			}
+			catch (UnsupportedOperationException | AccessDeniedException e)
+			{
+				// Windows can not open a directory; there, the rename is durable without syncing the directory
+			}
+		}
+	}
+}
@@ -0,0 +1,270 @@
+package org.jurr.pipetableformatter;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+
+import org.jurr.pipetableformatter.FormatStats.Phase;
+
+/**
+ * Finds the files that match the file masks in a directory tree, and hands them to a consumer.
+ * <p>
+ * Excluded and ignored directories (see {@link FileMasks} and {@link IgnoreRules}) are pruned: we never look inside them. The same goes for <code>.git</code> directories.
+ * Sibling directories are walked concurrently, each by a task in a fork-join pool of its own; so the consumer may be called from several threads at the same time.
+ * Symbolic links to directories are not followed.
+ */
+final class DirectoryWalker
+{
+	private static final String GIT_DIRECTORY = ".git";
+
+	/**
+	 * Receives the files that were found. Must be thread-safe.
+	 */
+	interface FileConsumer
+	{
+		/**
+		 * @return <code>false</code> to stop the walk
+		 */
+		boolean accept(Path file) throws InterruptedException;
+	}
+
+	private final FileMasks fileMasks;
+	private final boolean ignoreFiles;
+	private final int threads;
+	private final FormatStats stats;
+
+	/**
+	 * @param ignoreFiles whether to honour the ignore files in the walked directories
+	 * @param stats where the time spent walking is counted
+	 */
+	DirectoryWalker(final FileMasks fileMasks, final boolean ignoreFiles, final int threads, final FormatStats stats)
+	{
+		if (threads < 1)
+		{
+			throw new IllegalArgumentException("Need at least one thread, not " + threads);
+		}
+
+		this.fileMasks = fileMasks;
+		this.ignoreFiles = ignoreFiles;
+		this.threads = threads;
+		this.stats = stats;
+	}
+
+	/**
+	 * @param ignoreRules the ignore rules of the parent directory
+	 * @return whether we should not look inside the directory: it is a <code>.git</code> directory, or it is excluded or ignored
+	 */
+	static boolean isPruned(final Path directory, final FileMasks fileMasks, final IgnoreRules ignoreRules)
+	{
+		final Path name = directory.getFileName();
+		return (name != null && name.toString().equals(GIT_DIRECTORY)) || fileMasks.isExcludedDirectory(directory) || ignoreRules.isIgnored(directory, true);
+	}
+
+	/**
+	 * Walks the directory, or passes the file itself to the consumer when it matches the file masks.
+	 *
+	 * @return <code>false</code> when the consumer stopped the walk
+	 */
+	boolean walk(final Path fileOrDirectory, final FileConsumer consumer) throws InterruptedException
+	{
+		final long start = System.nanoTime();
+		final boolean isDirectory;
+		try
+		{
+			isDirectory = Files.readAttributes(fileOrDirectory, BasicFileAttributes.class).isDirectory();
+		}
+		catch (IOException e)
+		{
+			throw new PipeTableFormatterException("Error while listing files in directory " + fileOrDirectory, e);
+		}
+		finally
+		{
+			stats.phase(Phase.WALK, System.nanoTime() - start);
+		}
+
+		if (!isDirectory)
+		{
+			return !fileMasks.matches(fileOrDirectory) || consumer.accept(fileOrDirectory);
+		}
+
+		final Walk walk = new Walk(consumer);
+		final ForkJoinPool pool = new ForkJoinPool(threads);
+		try
+		{
+			final Future<Void> result = pool.submit(new DirectoryTask(walk, fileOrDirectory, IgnoreRules.NONE));
+			result.get();
+			return !walk.cancelled;
+		}
+		catch (InterruptedException e)
+		{
+			walk.cancelled = true;
+			throw e;
+		}
+		catch (ExecutionException e)
+		{
+			final Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+			{
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error)
+			{
+				throw (Error) cause;
+			}
+			throw new PipeTableFormatterException("Error while listing files in directory " + fileOrDirectory, cause);
+		}
+		finally
+		{
+			// Interrupts the consumer, if it is still blocked
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * The state of one call to {@link DirectoryWalker#walk(Path, FileConsumer)}.
+	 */
+	private final class Walk
+	{
+		private final FileConsumer consumer;
+		private volatile boolean cancelled;
+
+		Walk(final FileConsumer consumer)
+		{
+			this.consumer = consumer;
+		}
+
+		IgnoreRules readIgnoreRules(final IgnoreRules parentIgnoreRules, final Path directory)
+		{
+			return ignoreFiles ? parentIgnoreRules.read(directory) : parentIgnoreRules;
+		}
+
+		boolean isMatchingFile(final Path file, final IgnoreRules ignoreRules)
+		{
+			return fileMasks.matches(file) && !ignoreRules.isIgnored(file, false);
+		}
+
+		boolean isPruned(final Path directory, final IgnoreRules ignoreRules)
+		{
+			return DirectoryWalker.isPruned(directory, fileMasks, ignoreRules);
+		}
+
+		void walked(final long nanos)
+		{
+			stats.phase(Phase.WALK, nanos);
+		}
+	}
+
+	/**
+	 * Lists one directory, forks a task for every subdirectory that is not pruned, and hands the matching files to the consumer.
+	 */
+	private static final class DirectoryTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final transient Walk walk;
+		private final transient Path directory;
+		private final transient IgnoreRules parentIgnoreRules;
+
+		DirectoryTask(final Walk walk, final Path directory, final IgnoreRules parentIgnoreRules)
+		{
+			this.walk = walk;
+			this.directory = directory;
+			this.parentIgnoreRules = parentIgnoreRules;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if (walk.cancelled)
+			{
+				return;
+			}
+
+			final long start = System.nanoTime();
+			final IgnoreRules ignoreRules = walk.readIgnoreRules(parentIgnoreRules, directory);
+			final List<DirectoryTask> subdirectories = new ArrayList<>();
+			final List<Path> files = new ArrayList<>();
+			try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory))
+			{
+				for (Path entry : entries)
+				{
+					final BasicFileAttributes attributes;
+					try
+					{
+						attributes = Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+					}
+					catch (NoSuchFileException e)
+					{
+						// Deleted while we were walking
+						continue;
+					}
+
+					if (attributes.isDirectory())
+					{
+						if (!walk.isPruned(entry, ignoreRules))
+						{
+							subdirectories.add(new DirectoryTask(walk, entry, ignoreRules));
+						}
+					}
+					else if (walk.isMatchingFile(entry, ignoreRules))
+					{
+						files.add(entry);
+					}
+				}
+			}
+			catch (NoSuchFileException e)
+			{
+				// Deleted while we were walking
+				return;
+			}
+			catch (IOException e)
+			{
+				throw new PipeTableFormatterException("Error while listing files in directory " + directory, e);
+			}
+			finally
+			{
+				walk.walked(System.nanoTime() - start);
+			}
+
+			for (DirectoryTask subdirectory : subdirectories)
+			{
+				subdirectory.fork();
+			}
+			acceptAll(files);
+			for (int i = subdirectories.size() - 1; i >= 0; i--)
+			{
+				subdirectories.get(i).join();
+			}
+		}
+
+		private void acceptAll(final List<Path> files)
+		{
+			try
+			{
+				for (Path file : files)
+				{
+					if (walk.cancelled || !walk.consumer.accept(file))
+					{
+						walk.cancelled = true;
+						return;
+					}
+				}
+			}
+			catch (InterruptedException e)
+			{
+				walk.cancelled = true;
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
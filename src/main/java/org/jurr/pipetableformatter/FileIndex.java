@@ -0,0 +1,167 @@
+package org.jurr.pipetableformatter;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Remembers the size and modification time of the matching files in a number of directories, so we can tell which files changed by walking the directories again.
+ * <p>
+ * The same directories are pruned as by {@link DirectoryWalker}: we never look inside <code>.git</code> directories, nor inside excluded and ignored directories.
+ * This class is not thread-safe.
+ */
+final class FileIndex
+{
+	private final FileMasks fileMasks;
+	private final boolean ignoreFiles;
+	private final Map<Path, FileState> files;
+
+	/**
+	 * The ignore rules of every directory that was walked.
+	 */
+	private final Map<Path, IgnoreRules> directories;
+
+	/**
+	 * @param ignoreFiles whether to honour the ignore files in the walked directories
+	 */
+	FileIndex(final FileMasks fileMasks, final boolean ignoreFiles)
+	{
+		this.fileMasks = fileMasks;
+		this.ignoreFiles = ignoreFiles;
+		files = new HashMap<>();
+		directories = new HashMap<>();
+	}
+
+	/**
+	 * @return whether the file matches the file masks, and is not ignored; only files in directories that were walked can match
+	 */
+	boolean matches(final Path file)
+	{
+		final IgnoreRules ignoreRules = directories.get(file.getParent());
+		return ignoreRules != null && fileMasks.matches(file) && !ignoreRules.isIgnored(file, false);
+	}
+
+	/**
+	 * @return whether the file is an ignore file that is honoured; when it changes, the directory it is in should be walked again
+	 */
+	boolean isIgnoreFile(final Path file)
+	{
+		return ignoreFiles && IgnoreRules.isIgnoreFile(file);
+	}
+
+	/**
+	 * @return whether the file is in the index; that is, whether it matched when its directory was last walked
+	 */
+	boolean contains(final Path file)
+	{
+		return files.containsKey(file);
+	}
+
+	/**
+	 * Forgets the file that was deleted; or the directory, with everything in it.
+	 *
+	 * @return whether it was a directory that was walked
+	 */
+	boolean remove(final Path path)
+	{
+		files.remove(path);
+		if (directories.remove(path) == null)
+		{
+			return false;
+		}
+		files.keySet().removeIf(file -> file.startsWith(path));
+		directories.keySet().removeIf(dir -> dir.startsWith(path));
+		return true;
+	}
+
+	/**
+	 * Same as {@link #scan(Path, Consumer)}, without visiting directories.
+	 */
+	List<Path> scan(final Path directory)
+	{
+		return scan(directory, dir -> {
+			// Not interested
+		});
+	}
+
+	/**
+	 * Walks the directory, and updates the index for the matching files in it. Files that no longer exist (or are no longer matched) are removed from the index.
+	 *
+	 * @param directoryVisitor is called for every directory that is walked (including the directory itself, unless it is pruned)
+	 * @return the matching files that were not in the index, or have a different size or modification time
+	 */
+	List<Path> scan(final Path directory, final Consumer<Path> directoryVisitor)
+	{
+		final Set<Path> seen = new HashSet<>();
+		final Set<Path> seenDirectories = new HashSet<>();
+		final List<Path> changed = new ArrayList<>();
+
+		try
+		{
+			Files.walkFileTree(directory, new SimpleFileVisitor<Path>()
+			{
+				@Override
+				public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs)
+				{
+					// The directories we were asked to watch have no parent in the index, and are never pruned
+					final IgnoreRules parentIgnoreRules = directories.get(dir.getParent());
+					if (parentIgnoreRules != null && DirectoryWalker.isPruned(dir, fileMasks, parentIgnoreRules))
+					{
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+
+					final IgnoreRules base = parentIgnoreRules != null ? parentIgnoreRules : IgnoreRules.NONE;
+					directories.put(dir, ignoreFiles ? base.read(dir) : base);
+					seenDirectories.add(dir);
+					directoryVisitor.accept(dir);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs)
+				{
+					if (attrs.isRegularFile() && matches(file))
+					{
+						seen.add(file);
+						final FileState state = new FileState(attrs);
+						if (!state.equals(files.put(file, state)))
+						{
+							changed.add(file);
+						}
+					}
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(final Path file, final IOException exc)
+				{
+					// The file was deleted while we were walking; it will be removed from the index below
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		catch (NoSuchFileException e)
+		{
+			// The directory itself is gone
+		}
+		catch (IOException e)
+		{
+			throw new WatcherException("Error while scanning directory " + directory, e);
+		}
+
+		files.keySet().removeIf(file -> file.startsWith(directory) && !seen.contains(file));
+		directories.keySet().removeIf(dir -> dir.startsWith(directory) && !seenDirectories.contains(dir));
+		return changed;
+	}
+}
@@ -0,0 +1,105 @@
+package org.jurr.pipetableformatter;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Matches the files that match at least one of the include masks, and none of the exclude masks.
+ * <p>
+ * A mask without a <code>/</code> is matched against the file name, so <code>*.story</code> matches story files in every directory.
+ * A mask with a <code>/</code> is matched against the end of the path, so <code>docs/*.story</code> matches the story files in every <code>docs</code> directory (and in the directory <code>docs</code> itself, when that is the relative directory that is walked).
+ * This class is thread-safe.
+ */
+final class FileMasks implements PathMatcher
+{
+	private static final String ANY_DESCENDANT = "/**";
+
+	private final List<PathMatcher> includes;
+	private final List<PathMatcher> excludes;
+
+	/**
+	 * The exclude masks that also exclude a directory as a whole; that is the masks that match a directory itself, and the masks that end in <code>/**</code> without it.
+	 */
+	private final List<PathMatcher> excludedDirectories;
+
+	FileMasks(final List<String> includeMasks, final List<String> excludeMasks)
+	{
+		if (includeMasks.isEmpty())
+		{
+			throw new IllegalArgumentException("Need at least one file mask");
+		}
+
+		includes = compile(includeMasks);
+		excludes = compile(excludeMasks);
+		excludedDirectories = new ArrayList<>(excludes);
+		for (String mask : excludeMasks)
+		{
+			if (mask.endsWith(ANY_DESCENDANT) && mask.length() > ANY_DESCENDANT.length())
+			{
+				excludedDirectories.add(compile(mask.substring(0, mask.length() - ANY_DESCENDANT.length())));
+			}
+		}
+	}
+
+	FileMasks(final String includeMask)
+	{
+		this(Collections.singletonList(includeMask), Collections.emptyList());
+	}
+
+	@Override
+	public boolean matches(final Path path)
+	{
+		return matchesAny(includes, path) && !matchesAny(excludes, path);
+	}
+
+	/**
+	 * @return whether nothing in the directory can match, because the directory itself is excluded
+	 */
+	boolean isExcludedDirectory(final Path directory)
+	{
+		return matchesAny(excludedDirectories, directory);
+	}
+
+	private static boolean matchesAny(final List<PathMatcher> matchers, final Path path)
+	{
+		for (PathMatcher matcher : matchers)
+		{
+			if (matcher.matches(path))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static List<PathMatcher> compile(final List<String> masks)
+	{
+		final List<PathMatcher> result = new ArrayList<>(masks.size());
+		for (String mask : masks)
+		{
+			result.add(compile(mask));
+		}
+		return result;
+	}
+
+	private static PathMatcher compile(final String mask)
+	{
+		if (mask.indexOf('/') >= 0)
+		{
+			// The end of the path may also be all of it, when a relative directory is walked; the mask may contain a group, so it can't be "{,**/}" + mask
+			final PathMatcher wholePathMatcher = FileSystems.getDefault().getPathMatcher("glob:" + mask);
+			final PathMatcher pathEndMatcher = FileSystems.getDefault().getPathMatcher("glob:**/" + mask);
+			return path -> wholePathMatcher.matches(path) || pathEndMatcher.matches(path);
+		}
+
+		final PathMatcher fileNameMatcher = FileSystems.getDefault().getPathMatcher("glob:" + mask);
+		return path -> {
+			final Path fileName = path.getFileName();
+			return fileName != null && fileNameMatcher.matches(fileName);
+		};
+	}
+}
@@ -0,0 +1,183 @@
+package org.jurr.pipetableformatter;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
+
+/**
+ * Hands paths from a producer (typically the thread that walks the directories) to a fixed number of worker threads.
+ * <p>
+ * The paths are passed through a bounded queue. When the workers can not keep up, {@link #submit(Path)} blocks, so the number of pending paths stays bounded.
+ * When the action returns <code>false</code> for a path, the pipeline is cancelled.
+ * When the action fails for a path (with an exception, or an error like {@link OutOfMemoryError}), the pipeline is cancelled too, and the failure is rethrown by {@link #finish()}.
+ */
+final class FilePipeline
+{
+	/**
+	 * How many paths, per worker, may be waiting in the queue.
+	 */
+	private static final int QUEUE_SIZE_PER_WORKER = 16;
+
+	/**
+	 * How long we block on the queue, before checking whether the pipeline was cancelled.
+	 */
+	private static final long POLL_MILLIS = 100;
+
+	/**
+	 * Tells a worker that there are no more paths.
+	 */
+	private static final Path END_OF_INPUT = Paths.get("");
+
+	private final Predicate<Path> action;
+	private final BlockingQueue<Path> queue;
+	private final Thread[] workers;
+	private final AtomicReference<Throwable> failure;
+	private volatile boolean cancelled;
+
+	/**
+	 * Starts the worker threads, as daemon platform threads.
+	 */
+	FilePipeline(final int workerCount, final Predicate<Path> action)
+	{
+		this(workerCount, newPlatformThreadFactory(), action);
+	}
+
+	/**
+	 * Starts the worker threads, using the given factory.
+	 */
+	FilePipeline(final int workerCount, final ThreadFactory threadFactory, final Predicate<Path> action)
+	{
+		if (workerCount < 1)
+		{
+			throw new IllegalArgumentException("Need at least one worker, not " + workerCount);
+		}
+
+		this.action = action;
+		queue = new ArrayBlockingQueue<>(workerCount * QUEUE_SIZE_PER_WORKER);
+		failure = new AtomicReference<>();
+
+		workers = new Thread[workerCount];
+		for (int i = 0; i < workerCount; i++)
+		{
+			workers[i] = threadFactory.newThread(this::work);
+			workers[i].start();
+		}
+	}
+
+	/**
+	 * Queues the path for one of the workers. Blocks while the queue is full.
+	 *
+	 * @return <code>false</code> when the pipeline was cancelled, in which case the caller can stop producing paths
+	 */
+	boolean submit(final Path path) throws InterruptedException
+	{
+		while (!cancelled)
+		{
+			if (queue.offer(path, POLL_MILLIS, TimeUnit.MILLISECONDS))
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Drops all paths that are still queued. Paths that are being processed are finished, but no new ones are started.
+	 */
+	void cancel()
+	{
+		cancelled = true;
+		queue.clear();
+	}
+
+	/**
+	 * Waits until the workers processed all submitted paths, and stops them.
+	 *
+	 * @throws RuntimeException the first exception that the action threw, if any
+	 * @throws Error the first error that the action threw, if any
+	 */
+	void finish() throws InterruptedException
+	{
+		try
+		{
+			for (int i = 0; i < workers.length; i++)
+			{
+				if (!submit(END_OF_INPUT))
+				{
+					break;
+				}
+			}
+
+			for (Thread worker : workers)
+			{
+				worker.join();
+			}
+		}
+		catch (InterruptedException e)
+		{
+			cancel();
+			throw e;
+		}
+
+		final Throwable t = failure.get();
+		if (t instanceof RuntimeException)
+		{
+			throw (RuntimeException) t;
+		}
+		if (t instanceof Error)
+		{
+			throw (Error) t;
+		}
+		if (t != null)
+		{
+			throw new PipeTableFormatterException("Error while processing files", t);
+		}
+	}
+
+	private static ThreadFactory newPlatformThreadFactory()
+	{
+		final AtomicInteger threadNumber = new AtomicInteger();
+		return runnable -> {
+			final Thread thread = new Thread(runnable, "pipe-table-formatter-worker-" + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+
+	@SuppressWarnings("squid:S1181") // Suppress Sonar warning "Catch Exception instead of Throwable."
+	private void work()
+	{
+		try
+		{
+			while (!cancelled)
+			{
+				final Path path = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+				if (path == END_OF_INPUT)
+				{
+					return;
+				}
+				if (path != null && !cancelled && !action.test(path))
+				{
+					cancel();
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			cancel();
+			Thread.currentThread().interrupt();
+		}
+		catch (Throwable t)
+		{
+			// Also an error, or the producer would wait forever for a worker that is gone
+			failure.compareAndSet(null, t);
+			cancel();
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package org.jurr.pipetableformatter;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * The size and modification time of a file; when either differs, we assume the content changed.
+ */
+final class FileState
+{
+	private final long size;
+	private final long modifiedMillis;
+
+	FileState(final BasicFileAttributes attributes)
+	{
+		size = attributes.size();
+		modifiedMillis = attributes.lastModifiedTime().toMillis();
+	}
+
+	static FileState of(final Path file) throws IOException
+	{
+		return new FileState(Files.readAttributes(file, BasicFileAttributes.class));
+	}
+
+	@Override
+	public boolean equals(final Object obj)
+	{
+		if (!(obj instanceof FileState))
+		{
+			return false;
+		}
+		final FileState other = (FileState) obj;
+		return size == other.size && modifiedMillis == other.modifiedMillis;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return Long.hashCode(size) * 31 + Long.hashCode(modifiedMillis);
+	}
+}
@@ -0,0 +1,234 @@
+package org.jurr.pipetableformatter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+
+/**
+ * Where the formatted content of a story file goes, once it turns out to differ from the original; see {@link WriteStrategy}.
+ * Nothing is created until the target is opened.
+ */
+abstract class FileTarget implements ChangeDetectingOutputStream.Target
+{
+	protected final Path storyFile;
+	private final MessageDigest digest;
+	protected final boolean sync;
+
+	/**
+	 * @param digest when not <code>null</code>, the complete formatted content is fed to this digest
+	 * @param sync whether to sync the written content to disk before it replaces the story file
+	 */
+	FileTarget(final Path storyFile, final MessageDigest digest, final boolean sync)
+	{
+		this.storyFile = storyFile;
+		this.digest = digest;
+		this.sync = sync;
+	}
+
+	/**
+	 * @param mapped whether the story file is memory mapped, and so is still being read while the target is written
+	 * @param reflinks knows where reflinks are supported
+	 */
+	static FileTarget create(final WriteStrategy writeStrategy, final Path storyFile, final MessageDigest digest, final boolean sync, final boolean mapped, final Reflinks reflinks)
+	{
+		if (writeStrategy == WriteStrategy.IN_PLACE && !mapped)
+		{
+			return new InPlace(storyFile, digest, sync);
+		}
+		return new TempFile(storyFile, digest, sync, writeStrategy == WriteStrategy.REFLINK ? reflinks : null);
+	}
+
+	/**
+	 * Makes the written content the content of the story file. Call this after the stream that the target opened is closed.
+	 *
+	 * @param directorySync where to add the directory of the story file, when it needs to be synced
+	 */
+	abstract void commit(DirectorySync directorySync) throws IOException;
+
+	/**
+	 * Removes what is left behind when the target was not committed.
+	 */
+	abstract void cleanUp() throws IOException;
+
+	/**
+	 * Wraps the stream, so everything written to it is fed to the digest (if any).
+	 *
+	 * @param identical the part of the formatted content that is not written to the stream, as the target already holds it
+	 */
+	protected OutputStream digesting(final OutputStream out, final ByteBuffer identical)
+	{
+		if (digest == null)
+		{
+			return out;
+		}
+		digest.update(identical);
+		return new DigestOutputStream(out, digest);
+	}
+
+	/**
+	 * The formatted content goes to a temporary file next to the story file, which then atomically replaces the story file.
+	 */
+	private static final class TempFile extends FileTarget
+	{
+		private final Reflinks reflinks;
+		private Path path;
+
+		/**
+		 * @param reflinks when not <code>null</code>, the temporary file starts out as a reflink of the story file, where that is supported and worth it
+		 */
+		TempFile(final Path storyFile, final MessageDigest digest, final boolean sync, final Reflinks reflinks)
+		{
+			super(storyFile, digest, sync);
+			this.reflinks = reflinks;
+		}
+
+		@Override
+		public OutputStream open() throws IOException
+		{
+			if (path == null)
+			{
+				path = PipeTableFormatter.createTempFileFor(storyFile);
+			}
+			// The temporary file may hold a failed reflink
+			final FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+			return digesting(new BufferedOutputStream(new FileChannelOutputStream(channel, false, sync)), ByteBuffer.allocate(0));
+		}
+
+		@Override
+		public OutputStream openAfter(final ByteBuffer identical) throws IOException
+		{
+			if (reflinks == null || identical.remaining() < Reflinks.MIN_IDENTICAL_BYTES || !reflinks.isSupported(storyFile))
+			{
+				return null;
+			}
+
+			path = PipeTableFormatter.createTempFileFor(storyFile);
+			if (!Reflinks.reflink(storyFile, path))
+			{
+				// Something about this file; the next one may still be reflinked
+				return null;
+			}
+
+			final FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE);
+			channel.position(identical.remaining());
+			return digesting(new BufferedOutputStream(new FileChannelOutputStream(channel, true, sync)), identical);
+		}
+
+		@Override
+		void commit(final DirectorySync directorySync) throws IOException
+		{
+			Files.move(path, storyFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			if (sync)
+			{
+				directorySync.add(storyFile);
+			}
+		}
+
+		@Override
+		void cleanUp() throws IOException
+		{
+			if (path != null)
+			{
+				Files.deleteIfExists(path);
+			}
+		}
+	}
+
+	/**
+	 * The formatted content overwrites the story file, from where it first differs.
+	 */
+	private static final class InPlace extends FileTarget
+	{
+		InPlace(final Path storyFile, final MessageDigest digest, final boolean sync)
+		{
+			super(storyFile, digest, sync);
+		}
+
+		@Override
+		public OutputStream open() throws IOException
+		{
+			return openAfter(ByteBuffer.allocate(0));
+		}
+
+		@Override
+		public OutputStream openAfter(final ByteBuffer identical) throws IOException
+		{
+			final FileChannel channel = FileChannel.open(storyFile, StandardOpenOption.WRITE);
+			channel.position(identical.remaining());
+			return digesting(new BufferedOutputStream(new FileChannelOutputStream(channel, true, sync)), identical);
+		}
+
+		@Override
+		void commit(final DirectorySync directorySync)
+		{
+			// The content is in place already, and the directory did not change
+		}
+
+		@Override
+		void cleanUp()
+		{
+			// Nothing was created
+		}
+	}
+
+	/**
+	 * Writes to a file channel, from its current position on.
+	 */
+	private static final class FileChannelOutputStream extends OutputStream
+	{
+		private final FileChannel channel;
+		private final boolean truncate;
+		private final boolean sync;
+
+		/**
+		 * @param truncate whether to cut off what is left of the file after the written content, when closed
+		 * @param sync whether to sync the file to disk when closed
+		 */
+		FileChannelOutputStream(final FileChannel channel, final boolean truncate, final boolean sync)
+		{
+			this.channel = channel;
+			this.truncate = truncate;
+			this.sync = sync;
+		}
+
+		@Override
+		public void write(final int b) throws IOException
+		{
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException
+		{
+			final ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+			while (buffer.hasRemaining())
+			{
+				channel.write(buffer);
+			}
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			try (FileChannel c = channel)
+			{
+				if (truncate)
+				{
+					c.truncate(c.position());
+				}
+				if (sync)
+				{
+					c.force(false);
+				}
+			}
+		}
+	}
+}
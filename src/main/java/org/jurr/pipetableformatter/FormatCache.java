@@ -0,0 +1,266 @@
+package org.jurr.pipetableformatter;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers which files were formatted, so unchanged files can be skipped in the next run.
+ * <p>
+ * Per file, we store its size and modification time, and a hash of its (formatted) content.
+ * When the size and modification time of a file still match, it is skipped without being read.
+ * When they don't, but the content still hashes to the same value (for example because the file was touched), it is skipped without being formatted.
+ * <p>
+ * The cache is only valid for the formatting rules it was created with; see {@link TableFormatter#RULES_VERSION}.
+ * This class is thread-safe.
+ */
+public final class FormatCache
+{
+	private static final String HEADER_PREFIX = "pipe-table-formatter-cache ";
+	private static final String HASH_ALGORITHM = "SHA-256";
+	private static final char SEPARATOR = '\t';
+
+	/**
+	 * Modification times are not exact on every file system. A file that was modified this long before (or any time after) the cache was last saved,
+	 * might have been modified again without its modification time changing. Such a file is not skipped on its size and modification time alone.
+	 */
+	private static final long MODIFICATION_TIME_GRANULARITY_MILLIS = 2000;
+
+	private final Path cacheFile;
+	private final Map<String, Entry> entries;
+	private volatile long savedAtMillis;
+
+	private FormatCache(final Path cacheFile, final long savedAtMillis)
+	{
+		this.cacheFile = cacheFile;
+		this.savedAtMillis = savedAtMillis;
+		entries = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Loads the cache from the given file. When the file does not exist, or was written for different formatting rules, the cache starts out empty.
+	 */
+	public static FormatCache load(final Path cacheFile)
+	{
+		try (BufferedReader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8))
+		{
+			final String header = reader.readLine();
+			if (header == null || !header.equals(HEADER_PREFIX + getRulesKey()))
+			{
+				return new FormatCache(cacheFile, 0);
+			}
+
+			final FormatCache result = new FormatCache(cacheFile, Files.getLastModifiedTime(cacheFile).toMillis());
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				result.parseEntry(line);
+			}
+			return result;
+		}
+		catch (NoSuchFileException e)
+		{
+			return new FormatCache(cacheFile, 0);
+		}
+		catch (IOException e)
+		{
+			throw new PipeTableFormatterException("Error while reading cache file " + cacheFile, e);
+		}
+	}
+
+	/**
+	 * Writes the cache back to the file it was loaded from. Entries for files that were not seen since the cache was loaded (or last saved), and that no longer exist, are dropped.
+	 * Afterwards, the cache is as it would be when it was loaded again; so it can be kept, and saved again later.
+	 */
+	public void save()
+	{
+		try
+		{
+			final Path tempFile = PipeTableFormatter.createTempFileFor(cacheFile);
+			try
+			{
+				try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8))
+				{
+					writer.write(HEADER_PREFIX + getRulesKey());
+					writer.newLine();
+					for (Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator(); iterator.hasNext();)
+					{
+						final Map.Entry<String, Entry> mapEntry = iterator.next();
+						final Entry entry = mapEntry.getValue();
+						if (mapEntry.getKey().indexOf('\n') >= 0)
+						{
+							// Would not survive our line based format
+							iterator.remove();
+							continue;
+						}
+
+						if (entry.seen || Files.exists(cacheFile.getFileSystem().getPath(mapEntry.getKey())))
+						{
+							writer.write(Long.toString(entry.size) + SEPARATOR + entry.modifiedMillis + SEPARATOR + entry.hash + SEPARATOR + mapEntry.getKey());
+							writer.newLine();
+							entry.seen = false;
+						}
+						else
+						{
+							iterator.remove();
+						}
+					}
+				}
+				Files.move(tempFile, cacheFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+				savedAtMillis = Files.getLastModifiedTime(cacheFile).toMillis();
+			}
+			finally
+			{
+				Files.deleteIfExists(tempFile);
+			}
+		}
+		catch (IOException e)
+		{
+			throw new PipeTableFormatterException("Error while writing cache file " + cacheFile, e);
+		}
+	}
+
+	/**
+	 * @return whether the file has the same size and modification time as when it was last known to be formatted
+	 */
+	boolean isFormatted(final Path file, final BasicFileAttributes attributes)
+	{
+		final Entry entry = entries.get(key(file));
+		if (entry == null || entry.size != attributes.size() || entry.modifiedMillis != attributes.lastModifiedTime().toMillis())
+		{
+			return false;
+		}
+
+		if (entry.modifiedMillis >= savedAtMillis - MODIFICATION_TIME_GRANULARITY_MILLIS)
+		{
+			// The file might have been modified again in the same tick; we need to look at the content
+			return false;
+		}
+
+		entry.seen = true;
+		return true;
+	}
+
+	/**
+	 * @return whether the content has the same hash as when the file was last known to be formatted
+	 */
+	boolean isFormatted(final Path file, final String contentHash)
+	{
+		final Entry entry = entries.get(key(file));
+		return entry != null && entry.hash.equals(contentHash);
+	}
+
+	/**
+	 * Records that the file, with the given attributes, has formatted content with the given hash.
+	 */
+	void put(final Path file, final BasicFileAttributes attributes, final String contentHash)
+	{
+		final Entry entry = new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(), contentHash);
+		entry.seen = true;
+		entries.put(key(file), entry);
+	}
+
+	static MessageDigest newDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance(HASH_ALGORITHM);
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(HASH_ALGORITHM + " is not supported", e);
+		}
+	}
+
+	/**
+	 * Hashes the bytes between the position and limit of the content, without changing its position.
+	 */
+	static String hash(final ByteBuffer content)
+	{
+		return hash(content, newDigest());
+	}
+
+	/**
+	 * Same as {@link #hash(ByteBuffer)}, using the given digest. The digest is reset afterwards, so it can be reused.
+	 */
+	static String hash(final ByteBuffer content, final MessageDigest digest)
+	{
+		digest.update(content.duplicate());
+		return toHex(digest.digest());
+	}
+
+	static String toHex(final byte[] bytes)
+	{
+		final StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes)
+		{
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Everything that influences the formatted output. When any of this changes, cached results are no longer valid.
+	 */
+	private static String getRulesKey()
+	{
+		return "rules=" + TableFormatter.RULES_VERSION + ",line-separator=" + toHex(System.lineSeparator().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String key(final Path file)
+	{
+		return file.toAbsolutePath().normalize().toString();
+	}
+
+	private void parseEntry(final String line)
+	{
+		final String[] fields = line.split(String.valueOf(SEPARATOR), 4);
+		if (fields.length != 4)
+		{
+			// Not something we wrote; ignore it
+			return;
+		}
+
+		try
+		{
+			entries.put(fields[3], new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2]));
+		}
+		catch (NumberFormatException e)
+		{
+			// Not something we wrote; ignore it
+		}
+	}
+
+	private static final class Entry
+	{
+		private final long size;
+		private final long modifiedMillis;
+		private final String hash;
+
+		/**
+		 * Whether this file was seen since the cache was loaded, or last saved.
+		 */
+		private volatile boolean seen;
+
+		Entry(final long size, final long modifiedMillis, final String hash)
+		{
+			this.size = size;
+			this.modifiedMillis = modifiedMillis;
+			this.hash = hash;
+		}
+	}
+}
@@ -0,0 +1,430 @@
+package org.jurr.pipetableformatter;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counts what a {@link PipeTableFormatter} does, and where its time goes. All methods can be called from several threads at the same time.
+ * <p>
+ * The time per phase is summed over all threads, so with more than one thread it can add up to more than the wall clock time.
+ * The latency per file is kept in a histogram with buckets that are at most 25% wide, so the percentiles are estimates.
+ */
+public final class FormatStats implements FormatStatsMBean
+{
+	/**
+	 * The name under which {@link #registerMBean()} makes the statistics available.
+	 */
+	public static final String OBJECT_NAME = "org.jurr.pipetableformatter:type=FormatStats";
+
+	/**
+	 * Where the time goes while formatting a file.
+	 */
+	public enum Phase
+	{
+		/**
+		 * Finding the files to format.
+		 */
+		WALK,
+
+		/**
+		 * Reading (or memory mapping) a file.
+		 */
+		READ,
+
+		/**
+		 * Formatting the tables.
+		 */
+		FORMAT,
+
+		/**
+		 * Comparing the output with the original.
+		 */
+		COMPARE,
+
+		/**
+		 * Writing the output, and replacing the original with it.
+		 */
+		WRITE
+	}
+
+	/**
+	 * The number of buckets per power of two in the latency histogram.
+	 */
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+	private final LongAdder filesScanned = new LongAdder();
+	private final LongAdder filesSkipped = new LongAdder();
+	private final LongAdder filesUnchanged = new LongAdder();
+	private final LongAdder filesRewritten = new LongAdder();
+	private final LongAdder bytesRead = new LongAdder();
+	private final LongAdder bytesWritten = new LongAdder();
+	private final LongAdder tablesFormatted = new LongAdder();
+	private final LongAdder rowsFormatted = new LongAdder();
+	private final LongAdder[] phaseNanos;
+
+	/**
+	 * The number of files per latency bucket, in microseconds; see {@link #bucketOf(long)}.
+	 */
+	private final AtomicLongArray latencyHistogram = new AtomicLongArray(BUCKETS);
+	private final LongAccumulator maxLatencyMicros = new LongAccumulator(Math::max, 0);
+
+	public FormatStats()
+	{
+		phaseNanos = new LongAdder[Phase.values().length];
+		for (int i = 0; i < phaseNanos.length; i++)
+		{
+			phaseNanos[i] = new LongAdder();
+		}
+	}
+
+	void fileScanned()
+	{
+		filesScanned.increment();
+	}
+
+	/**
+	 * A file was skipped, because the cache knows it is formatted.
+	 */
+	void fileSkipped()
+	{
+		filesSkipped.increment();
+	}
+
+	void fileUnchanged()
+	{
+		filesUnchanged.increment();
+	}
+
+	/**
+	 * A file was rewritten; or, when only checking, a file was found that is not formatted.
+	 */
+	void fileRewritten()
+	{
+		filesRewritten.increment();
+	}
+
+	void bytesRead(final long bytes)
+	{
+		bytesRead.add(bytes);
+	}
+
+	void bytesWritten(final long bytes)
+	{
+		bytesWritten.add(bytes);
+	}
+
+	void tablesFormatted(final long tables, final long rows)
+	{
+		tablesFormatted.add(tables);
+		rowsFormatted.add(rows);
+	}
+
+	void phase(final Phase phase, final long nanos)
+	{
+		phaseNanos[phase.ordinal()].add(nanos);
+	}
+
+	/**
+	 * Records how long it took to process one file, from start to end.
+	 */
+	void fileLatency(final long nanos)
+	{
+		final long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(nanos, 0));
+		latencyHistogram.incrementAndGet(bucketOf(micros));
+		maxLatencyMicros.accumulate(micros);
+	}
+
+	/**
+	 * Adds everything that the other statistics counted to these.
+	 */
+	public void add(final FormatStats other)
+	{
+		filesScanned.add(other.getFilesScanned());
+		filesSkipped.add(other.getFilesSkipped());
+		filesUnchanged.add(other.getFilesUnchanged());
+		filesRewritten.add(other.getFilesRewritten());
+		bytesRead.add(other.getBytesRead());
+		bytesWritten.add(other.getBytesWritten());
+		tablesFormatted.add(other.getTablesFormatted());
+		rowsFormatted.add(other.getRowsFormatted());
+		for (Phase phase : Phase.values())
+		{
+			phase(phase, other.getPhaseNanos(phase));
+		}
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			latencyHistogram.addAndGet(i, other.latencyHistogram.get(i));
+		}
+		maxLatencyMicros.accumulate(other.getLatencyMaxMicros());
+	}
+
+	@Override
+	public void reset()
+	{
+		filesScanned.reset();
+		filesSkipped.reset();
+		filesUnchanged.reset();
+		filesRewritten.reset();
+		bytesRead.reset();
+		bytesWritten.reset();
+		tablesFormatted.reset();
+		rowsFormatted.reset();
+		for (LongAdder nanos : phaseNanos)
+		{
+			nanos.reset();
+		}
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			latencyHistogram.set(i, 0);
+		}
+		maxLatencyMicros.reset();
+	}
+
+	@Override
+	public long getFilesScanned()
+	{
+		return filesScanned.sum();
+	}
+
+	@Override
+	public long getFilesSkipped()
+	{
+		return filesSkipped.sum();
+	}
+
+	@Override
+	public long getFilesUnchanged()
+	{
+		return filesUnchanged.sum();
+	}
+
+	@Override
+	public long getFilesRewritten()
+	{
+		return filesRewritten.sum();
+	}
+
+	@Override
+	public long getBytesRead()
+	{
+		return bytesRead.sum();
+	}
+
+	@Override
+	public long getBytesWritten()
+	{
+		return bytesWritten.sum();
+	}
+
+	@Override
+	public long getTablesFormatted()
+	{
+		return tablesFormatted.sum();
+	}
+
+	@Override
+	public long getRowsFormatted()
+	{
+		return rowsFormatted.sum();
+	}
+
+	public long getPhaseNanos(final Phase phase)
+	{
+		return phaseNanos[phase.ordinal()].sum();
+	}
+
+	@Override
+	public long getWalkMillis()
+	{
+		return TimeUnit.NANOSECONDS.toMillis(getPhaseNanos(Phase.WALK));
+	}
+
+	@Override
+	public long getReadMillis()
+	{
+		return TimeUnit.NANOSECONDS.toMillis(getPhaseNanos(Phase.READ));
+	}
+
+	@Override
+	public long getFormatMillis()
+	{
+		return TimeUnit.NANOSECONDS.toMillis(getPhaseNanos(Phase.FORMAT));
+	}
+
+	@Override
+	public long getCompareMillis()
+	{
+		return TimeUnit.NANOSECONDS.toMillis(getPhaseNanos(Phase.COMPARE));
+	}
+
+	@Override
+	public long getWriteMillis()
+	{
+		return TimeUnit.NANOSECONDS.toMillis(getPhaseNanos(Phase.WRITE));
+	}
+
+	@Override
+	public long getLatencyP50Micros()
+	{
+		return getLatencyPercentileMicros(50);
+	}
+
+	@Override
+	public long getLatencyP99Micros()
+	{
+		return getLatencyPercentileMicros(99);
+	}
+
+	@Override
+	public long getLatencyMaxMicros()
+	{
+		return maxLatencyMicros.get();
+	}
+
+	/**
+	 * @return the latency in microseconds that the given percentage of the files did not exceed, or 0 when no files were processed
+	 */
+	public long getLatencyPercentileMicros(final double percentage)
+	{
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			total += latencyHistogram.get(i);
+		}
+		if (total == 0)
+		{
+			return 0;
+		}
+
+		final long rank = Math.max((long) Math.ceil(total * percentage / 100), 1);
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			count += latencyHistogram.get(i);
+			if (count >= rank)
+			{
+				return Math.min(bucketMax(i), getLatencyMaxMicros());
+			}
+		}
+		return getLatencyMaxMicros();
+	}
+
+	/**
+	 * Values below {@value #SUB_BUCKETS} get a bucket each. Above that, every power of two is split into {@value #SUB_BUCKETS} buckets of equal width.
+	 */
+	private static int bucketOf(final long value)
+	{
+		if (value < SUB_BUCKETS)
+		{
+			return (int) value;
+		}
+		final int highestBit = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+		final int subBucket = (int) (value >>> (highestBit - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (highestBit - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	/**
+	 * @return the largest value that falls in the bucket
+	 */
+	private static long bucketMax(final int bucket)
+	{
+		if (bucket < SUB_BUCKETS)
+		{
+			return bucket;
+		}
+		final int shift = bucket / SUB_BUCKETS - 1;
+		final long bucketMin = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+		return bucketMin + (1L << shift) - 1;
+	}
+
+	/**
+	 * Prints a human readable summary.
+	 */
+	public void printSummary(final PrintStream out)
+	{
+		out.println("Files: " + getFilesScanned() + " scanned, " + getFilesSkipped() + " skipped, " + getFilesUnchanged() + " unchanged, " + getFilesRewritten() + " rewritten");
+		out.println("Bytes: " + getBytesRead() + " read, " + getBytesWritten() + " written");
+		out.println("Tables: " + getTablesFormatted() + " formatted, with " + getRowsFormatted() + " rows");
+		out.println("Time (summed over all threads): walk " + getWalkMillis() + " ms, read " + getReadMillis() + " ms, format " + getFormatMillis() + " ms, compare " + getCompareMillis()
+				+ " ms, write " + getWriteMillis() + " ms");
+		out.println("Latency per file: p50 " + getLatencyP50Micros() + " us, p99 " + getLatencyP99Micros() + " us, max " + getLatencyMaxMicros() + " us");
+	}
+
+	/**
+	 * @return the statistics as a JSON object
+	 */
+	public String toJson()
+	{
+		final StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append("  \"files\": { \"scanned\": ").append(getFilesScanned()).append(", \"skipped\": ").append(getFilesSkipped()).append(", \"unchanged\": ").append(getFilesUnchanged())
+				.append(", \"rewritten\": ").append(getFilesRewritten()).append(" },\n");
+		json.append("  \"bytes\": { \"read\": ").append(getBytesRead()).append(", \"written\": ").append(getBytesWritten()).append(" },\n");
+		json.append("  \"tables\": ").append(getTablesFormatted()).append(",\n");
+		json.append("  \"rows\": ").append(getRowsFormatted()).append(",\n");
+		json.append("  \"phaseNanos\": {");
+		for (Phase phase : Phase.values())
+		{
+			json.append(phase.ordinal() == 0 ? " " : ", ").append('"').append(phase.name().toLowerCase(Locale.ROOT)).append("\": ").append(getPhaseNanos(phase));
+		}
+		json.append(" },\n");
+		json.append("  \"latencyMicros\": { \"p50\": ").append(getLatencyP50Micros()).append(", \"p99\": ").append(getLatencyP99Micros()).append(", \"max\": ").append(getLatencyMaxMicros())
+				.append(" }\n");
+		json.append("}\n");
+		return json.toString();
+	}
+
+	/**
+	 * Writes {@link #toJson()} to the file, replacing it atomically.
+	 */
+	public void writeJson(final Path file)
+	{
+		try
+		{
+			final Path tempFile = PipeTableFormatter.createTempFileFor(file.toAbsolutePath());
+			try
+			{
+				Files.write(tempFile, toJson().getBytes(StandardCharsets.UTF_8));
+				Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			}
+			finally
+			{
+				Files.deleteIfExists(tempFile);
+			}
+		}
+		catch (IOException e)
+		{
+			throw new PipeTableFormatterException("Error while writing statistics to " + file, e);
+		}
+	}
+
+	/**
+	 * Makes the statistics available over JMX, as {@value #OBJECT_NAME}.
+	 */
+	public void registerMBean()
+	{
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+		}
+		catch (JMException e)
+		{
+			throw new PipeTableFormatterException("Error while registering " + OBJECT_NAME, e);
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package org.jurr.pipetableformatter;
+
+/**
+ * The JMX view on {@link FormatStats}.
+ */
+public interface FormatStatsMBean
+{
+	long getFilesScanned();
+
+	long getFilesSkipped();
+
+	long getFilesUnchanged();
+
+	long getFilesRewritten();
+
+	long getBytesRead();
+
+	long getBytesWritten();
+
+	long getTablesFormatted();
+
+	long getRowsFormatted();
+
+	long getWalkMillis();
+
+	long getReadMillis();
+
+	long getFormatMillis();
+
+	long getCompareMillis();
+
+	long getWriteMillis();
+
+	long getLatencyP50Micros();
+
+	long getLatencyP99Micros();
+
+	long getLatencyMaxMicros();
+
+	void reset();
+}
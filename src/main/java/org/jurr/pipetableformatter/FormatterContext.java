@@ -0,0 +1,162 @@
+package org.jurr.pipetableformatter;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * What a worker needs to read and format a file, kept from one file to the next: the read and output buffers, the {@link Utf8Formatter} (with its buffers, row storage and column widths) and the digest.
+ * So once the buffers fit the files, formatting another file allocates next to nothing.
+ * <p>
+ * The buffers grow with the files, and are dropped again when the recent files are a lot smaller than the file that made them grow.
+ * Instances are not thread-safe; a context is used by one worker at a time.
+ */
+final class FormatterContext
+{
+	private static final int INITIAL_READ_BUFFER_SIZE = 64 * 1024;
+	private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Buffers are only dropped when they are at least this large, and at least this many times as large as the recent files.
+	 */
+	private static final int SHRINK_MINIMUM = 1024 * 1024;
+	private static final int SHRINK_FACTOR = 4;
+
+	/**
+	 * With every file, the size of the recent files shrinks by this part of it, unless the file is larger.
+	 */
+	private static final int RECENT_SIZE_DECAY = 16;
+
+	/**
+	 * The largest array we can allocate; some VMs reserve a few header words in an array.
+	 */
+	private static final int MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+
+	private byte[] readBuffer = new byte[0];
+	private byte[] outputBuffer;
+	private Utf8Formatter formatter;
+	private MessageDigest digest;
+
+	/**
+	 * The size of the largest file that the formatter formatted.
+	 */
+	private long formatterSize;
+
+	/**
+	 * The size of the largest of the recent files; it decays with every file that is smaller.
+	 */
+	private long recentSize;
+
+	/**
+	 * Reads the whole file into the read buffer.
+	 *
+	 * @return the content of the file, between the position and the limit of the result. It is only valid until the next call.
+	 */
+	ByteBuffer read(final Path file) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+		{
+			final long size = channel.size();
+			if (size >= MAX_ARRAY_SIZE)
+			{
+				throw new PipeTableFormatterException("Story file " + file + " is too large (" + size + " bytes)");
+			}
+
+			// One byte extra, so we find out that the file ends without growing the buffer
+			if (readBuffer.length <= size)
+			{
+				readBuffer = new byte[grownSize(size + 1)];
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(readBuffer);
+			while (channel.read(buffer) >= 0)
+			{
+				if (!buffer.hasRemaining())
+				{
+					// The file grew while we read it
+					if (readBuffer.length >= MAX_ARRAY_SIZE)
+					{
+						throw new PipeTableFormatterException("Story file " + file + " is too large");
+					}
+					final int position = buffer.position();
+					readBuffer = Arrays.copyOf(readBuffer, grownSize(readBuffer.length * 2L));
+					buffer = ByteBuffer.wrap(readBuffer);
+					((Buffer) buffer).position(position);
+				}
+			}
+			return ByteBuffer.wrap(readBuffer, 0, buffer.position());
+		}
+	}
+
+	/**
+	 * @return the formatter; the number of tables and rows it formatted keep counting from file to file
+	 */
+	Utf8Formatter getFormatter()
+	{
+		if (formatter == null)
+		{
+			formatter = new Utf8Formatter();
+		}
+		return formatter;
+	}
+
+	/**
+	 * @return a buffer for the output that is written to a file
+	 */
+	byte[] getOutputBuffer()
+	{
+		if (outputBuffer == null)
+		{
+			outputBuffer = new byte[OUTPUT_BUFFER_SIZE];
+		}
+		return outputBuffer;
+	}
+
+	/**
+	 * @return a digest for {@link FormatCache}; it is reset by every digest it makes
+	 */
+	MessageDigest getDigest()
+	{
+		if (digest == null)
+		{
+			digest = FormatCache.newDigest();
+		}
+		return digest;
+	}
+
+	/**
+	 * Tells the context that a file of the given size is done with, so the buffers can be sized to the recent files.
+	 */
+	void fileDone(final long size)
+	{
+		recentSize = Math.max(size, recentSize - recentSize / RECENT_SIZE_DECAY);
+		formatterSize = Math.max(formatterSize, size);
+
+		if (isOversized(readBuffer.length))
+		{
+			readBuffer = new byte[0];
+		}
+		if (isOversized(formatterSize))
+		{
+			formatter = null;
+			formatterSize = 0;
+		}
+	}
+
+	private boolean isOversized(final long capacity)
+	{
+		return capacity >= SHRINK_MINIMUM && capacity / SHRINK_FACTOR > recentSize;
+	}
+
+	/**
+	 * @return the size of a read buffer for at least the given number of bytes, with some room to spare, so a file that grows a little does not need a new buffer
+	 */
+	private static int grownSize(final long capacity)
+	{
+		return (int) Math.min(Math.max(INITIAL_READ_BUFFER_SIZE, capacity + capacity / 8), MAX_ARRAY_SIZE);
+	}
+}
@@ -0,0 +1,90 @@
+package org.jurr.pipetableformatter;
+
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+
+/**
+ * What the workers of a {@link PipeTableFormatter} share: the formatting permits, the {@link FormatterContext}s that are not in use, and the fork-join pool in which the tables of large files are formatted.
+ * <p>
+ * There is a permit for every thread that may format at the same time. A worker holds one while it formats a file, and so does every table that is formatted in the fork-join pool.
+ * So however the work is spread, no more than that many threads are formatting. This class is thread-safe.
+ */
+final class FormatterPool
+{
+	private final int threads;
+	private final Semaphore permits;
+
+	/**
+	 * The contexts that are not in use right now; the one that was used last is handed out first, as its buffers are most likely to fit.
+	 */
+	private final Deque<FormatterContext> contexts = new ConcurrentLinkedDeque<>();
+
+	private ForkJoinPool forkJoinPool;
+
+	FormatterPool(final int threads)
+	{
+		if (threads < 1)
+		{
+			throw new IllegalArgumentException("Need at least one thread, not " + threads);
+		}
+		this.threads = threads;
+		permits = new Semaphore(threads);
+	}
+
+	int getThreads()
+	{
+		return threads;
+	}
+
+	/**
+	 * Waits for a formatting permit. Give it back with {@link #releasePermit()}.
+	 */
+	void acquirePermit()
+	{
+		permits.acquireUninterruptibly();
+	}
+
+	/**
+	 * @return whether a formatting permit was available; if so, give it back with {@link #releasePermit()}
+	 */
+	boolean tryAcquirePermit()
+	{
+		return permits.tryAcquire();
+	}
+
+	void releasePermit()
+	{
+		permits.release();
+	}
+
+	/**
+	 * @return a context that is not in use; give it back with {@link #releaseContext(FormatterContext)} when done with it
+	 */
+	FormatterContext acquireContext()
+	{
+		final FormatterContext context = contexts.poll();
+		return context != null ? context : new FormatterContext();
+	}
+
+	/**
+	 * Gives the context back, so it can be reused. Only give back a context that finished its work; after a failure, it may be halfway a table.
+	 */
+	void releaseContext(final FormatterContext context)
+	{
+		contexts.push(context);
+	}
+
+	/**
+	 * @return the fork-join pool, with a thread for every permit. Its threads are daemon threads, and they stop when the pool was idle for a while.
+	 */
+	synchronized ForkJoinPool getForkJoinPool()
+	{
+		if (forkJoinPool == null)
+		{
+			forkJoinPool = new ForkJoinPool(threads);
+		}
+		return forkJoinPool;
+	}
+}
@@ -0,0 +1,116 @@
+package org.jurr.pipetableformatter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Asks the local <code>git</code> binary which files changed, so we don't have to walk the whole tree.
+ * Files that were deleted in the index are not listed, but files that were staged and deleted from the working tree since, are.
+ */
+final class GitFiles
+{
+	private static final String GIT = "git";
+
+	private GitFiles()
+	{
+	}
+
+	/**
+	 * @return the files in (or below) the directory that have changes staged in the index
+	 */
+	static List<Path> staged(final Path directory)
+	{
+		return git(directory, "diff", "--cached", "--name-only", "-z", "--relative", "--diff-filter=ACMR");
+	}
+
+	/**
+	 * @return whether git will take the ref as a commit; a ref that starts with <code>-</code> would be taken as an option (like <code>--output=file</code>)
+	 */
+	static boolean isValidRef(final String ref)
+	{
+		return !ref.isEmpty() && !ref.startsWith("-");
+	}
+
+	/**
+	 * @return the files in (or below) the directory that differ from the given commit (whether committed, staged or not), and the files that are not tracked (and not ignored)
+	 */
+	static List<Path> changedSince(final Path directory, final String ref)
+	{
+		if (!isValidRef(ref))
+		{
+			throw new IllegalArgumentException("Not a valid commit: '" + ref + "'");
+		}
+
+		final List<Path> result = git(directory, "diff", "--name-only", "-z", "--relative", "--diff-filter=ACMR", ref, "--");
+		result.addAll(git(directory, "ls-files", "--others", "--exclude-standard", "-z"));
+		return result;
+	}
+
+	/**
+	 * Runs git in the directory, and resolves the NUL separated paths that it prints against the directory.
+	 */
+	private static List<Path> git(final Path directory, final String... arguments)
+	{
+		final List<String> command = new ArrayList<>();
+		command.add(GIT);
+		command.addAll(Arrays.asList(arguments));
+
+		try
+		{
+			final Process process = new ProcessBuilder(command).directory(directory.toFile()).redirectInput(ProcessBuilder.Redirect.PIPE).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+			process.getOutputStream().close();
+			final byte[] output = readFully(process.getInputStream());
+
+			final int exitCode = process.waitFor();
+			if (exitCode != 0)
+			{
+				throw new PipeTableFormatterException("Command '" + String.join(" ", command) + "' in " + directory + " failed with exit code " + exitCode);
+			}
+
+			final List<Path> result = new ArrayList<>();
+			int start = 0;
+			for (int i = 0; i < output.length; i++)
+			{
+				if (output[i] == 0)
+				{
+					if (i > start)
+					{
+						result.add(directory.resolve(new String(output, start, i - start, StandardCharsets.UTF_8)));
+					}
+					start = i + 1;
+				}
+			}
+			return result;
+		}
+		catch (IOException e)
+		{
+			throw new PipeTableFormatterException("Error while running '" + String.join(" ", command) + "' in " + directory, e);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new PipeTableFormatterException("Interrupted while running '" + String.join(" ", command) + "' in " + directory, e);
+		}
+	}
+
+	private static byte[] readFully(final InputStream input) throws IOException
+	{
+		try (InputStream in = input)
+		{
+			final ByteArrayOutputStream result = new ByteArrayOutputStream();
+			final byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) >= 0)
+			{
+				result.write(buffer, 0, read);
+			}
+			return result.toByteArray();
+		}
+	}
+}
@@ -0,0 +1,221 @@
+package org.jurr.pipetableformatter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The rules of the ignore files (<code>.gitignore</code> and <code>.pipetableformatterignore</code>) in a directory, and in the directories above it up to where the walk started.
+ * <p>
+ * The most common part of the <code>.gitignore</code> syntax is supported: comments, <code>!</code> to negate a rule, a trailing <code>/</code> to only match directories,
+ * <code>*</code>, <code>?</code>, <code>[...]</code> and <code>**</code>. A rule with a <code>/</code> in it (other than at the end) is relative to the directory of its ignore file; other rules match a name at any depth.
+ * The rules of a directory take precedence over the rules of the directories above it, and a later rule takes precedence over an earlier one in the same file.
+ * Instances are immutable.
+ */
+final class IgnoreRules
+{
+	private static final List<String> IGNORE_FILE_NAMES = Collections.unmodifiableList(Arrays.asList(".gitignore", ".pipetableformatterignore"));
+
+	/**
+	 * Ignores nothing.
+	 */
+	static final IgnoreRules NONE = new IgnoreRules(null, null, Collections.emptyList());
+
+	private final IgnoreRules parent;
+	private final Path directory;
+	private final List<Rule> rules;
+
+	private IgnoreRules(final IgnoreRules parent, final Path directory, final List<Rule> rules)
+	{
+		this.parent = parent;
+		this.directory = directory;
+		this.rules = rules;
+	}
+
+	/**
+	 * @return whether the file is an ignore file, by its name
+	 */
+	static boolean isIgnoreFile(final Path file)
+	{
+		final Path name = file.getFileName();
+		return name != null && IGNORE_FILE_NAMES.contains(name.toString());
+	}
+
+	/**
+	 * @return the rules for the directory: these rules, together with the rules in the ignore files of the directory (if any)
+	 */
+	IgnoreRules read(final Path dir)
+	{
+		final List<Rule> dirRules = new ArrayList<>();
+		for (String ignoreFileName : IGNORE_FILE_NAMES)
+		{
+			final Path ignoreFile = dir.resolve(ignoreFileName);
+			try
+			{
+				for (String line : Files.readAllLines(ignoreFile, StandardCharsets.UTF_8))
+				{
+					final Rule rule = Rule.parse(line);
+					if (rule != null)
+					{
+						dirRules.add(rule);
+					}
+				}
+			}
+			catch (NoSuchFileException e)
+			{
+				// No ignore file of this kind here
+			}
+			catch (IOException e)
+			{
+				throw new PipeTableFormatterException("Error while reading ignore file " + ignoreFile, e);
+			}
+		}
+
+		return dirRules.isEmpty() ? this : new IgnoreRules(this, dir, dirRules);
+	}
+
+	/**
+	 * @param path a path in (or below) the directory that the rules were {@link #read(Path)} for
+	 */
+	boolean isIgnored(final Path path, final boolean isDirectory)
+	{
+		for (IgnoreRules current = this; current.directory != null; current = current.parent)
+		{
+			final Path relativePath = current.directory.relativize(path);
+			for (int i = current.rules.size() - 1; i >= 0; i--)
+			{
+				final Rule rule = current.rules.get(i);
+				if (rule.matches(relativePath, isDirectory))
+				{
+					return !rule.negated;
+				}
+			}
+		}
+		return false;
+	}
+
+	private static final class Rule
+	{
+		private final List<PathMatcher> matchers;
+		private final boolean negated;
+		private final boolean directoryOnly;
+		private final boolean anchored;
+
+		private Rule(final List<PathMatcher> matchers, final boolean negated, final boolean directoryOnly, final boolean anchored)
+		{
+			this.matchers = matchers;
+			this.negated = negated;
+			this.directoryOnly = directoryOnly;
+			this.anchored = anchored;
+		}
+
+		/**
+		 * @return the rule, or <code>null</code> when the line is empty or a comment
+		 */
+		static Rule parse(final String line)
+		{
+			String pattern = stripTrailingSpaces(line);
+			if (pattern.isEmpty() || pattern.startsWith("#"))
+			{
+				return null;
+			}
+
+			final boolean negated = pattern.startsWith("!");
+			if (negated)
+			{
+				pattern = pattern.substring(1);
+			}
+
+			final boolean directoryOnly = pattern.endsWith("/");
+			if (directoryOnly)
+			{
+				pattern = pattern.substring(0, pattern.length() - 1);
+			}
+
+			final boolean anchored = pattern.indexOf('/') >= 0;
+			if (pattern.startsWith("/"))
+			{
+				pattern = pattern.substring(1);
+			}
+			if (pattern.isEmpty())
+			{
+				return null;
+			}
+
+			// Braces have no special meaning in ignore files
+			pattern = pattern.replace("{", "\\{").replace("}", "\\}");
+
+			// In ignore files, "**/" and "/**/" may also match no directories at all; that is not the case in globs
+			final List<String> globs = new ArrayList<>();
+			globs.add(pattern);
+			for (int i = 0; i < globs.size(); i++)
+			{
+				final String glob = globs.get(i);
+				if (glob.startsWith("**/"))
+				{
+					addIfAbsent(globs, glob.substring("**/".length()));
+				}
+				final int index = glob.indexOf("/**/");
+				if (index >= 0)
+				{
+					addIfAbsent(globs, glob.substring(0, index) + glob.substring(index + "/**".length()));
+				}
+			}
+
+			final List<PathMatcher> matchers = new ArrayList<>(globs.size());
+			for (String glob : globs)
+			{
+				matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+			}
+			return new Rule(matchers, negated, directoryOnly, anchored);
+		}
+
+		boolean matches(final Path relativePath, final boolean isDirectory)
+		{
+			if (directoryOnly && !isDirectory)
+			{
+				return false;
+			}
+
+			final Path path = anchored ? relativePath : relativePath.getFileName();
+			if (path == null)
+			{
+				return false;
+			}
+			for (PathMatcher matcher : matchers)
+			{
+				if (matcher.matches(path))
+				{
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private static String stripTrailingSpaces(final String line)
+		{
+			int end = line.length();
+			while (end > 0 && Character.isWhitespace(line.charAt(end - 1)) && (end < 2 || line.charAt(end - 2) != '\\'))
+			{
+				end--;
+			}
+			return line.substring(0, end);
+		}
+
+		private static void addIfAbsent(final List<String> list, final String element)
+		{
+			if (!list.contains(element))
+			{
+				list.add(element);
+			}
+		}
+	}
+}
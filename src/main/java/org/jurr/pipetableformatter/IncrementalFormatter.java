@@ -0,0 +1,371 @@
+package org.jurr.pipetableformatter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps the tables in a document formatted while it is being edited, for example in an editor.
+ * <p>
+ * The document is indexed by line: where every line starts, and whether it is a table line.
+ * After an {@link #edit(int, int, String)}, only the table blocks around the edit are formatted again, and the result is returned as a minimal list of {@link TextEdit}s.
+ * So the work per edit depends on the size of the edited table, not on the size of the document.
+ * <p>
+ * Unlike the other ways of formatting, line terminators are left alone; only the contents of table lines are changed.
+ * Instances are not thread-safe.
+ */
+public final class IncrementalFormatter
+{
+	private static final int INITIAL_LINE_CAPACITY = 64;
+
+	private final StringBuilder text;
+
+	/**
+	 * The offset at which each line starts. A line consists of its content, followed by its terminator (if any).
+	 * A document that ends with a line terminator, ends with an empty line.
+	 */
+	private int[] lineStarts;
+	private boolean[] tableLines;
+	private int lineCount;
+
+	private final StringBuilder table;
+	private final StringBuilder formattedTable;
+	private final TableFormatter tableFormatter;
+
+	public IncrementalFormatter(final CharSequence document)
+	{
+		text = new StringBuilder(document);
+		lineStarts = new int[INITIAL_LINE_CAPACITY];
+		tableLines = new boolean[INITIAL_LINE_CAPACITY];
+		table = new StringBuilder();
+		formattedTable = new StringBuilder();
+		tableFormatter = new TableFormatter(formattedTable);
+
+		final int[] starts = scanLines(0, text.length(), true);
+		replaceLines(0, 0, starts, 0);
+	}
+
+	/**
+	 * @return the document, with all edits applied
+	 */
+	public String getText()
+	{
+		return text.toString();
+	}
+
+	/**
+	 * @return the line ranges of all tables in the document
+	 */
+	public List<LineRange> getTables()
+	{
+		final List<LineRange> result = new ArrayList<>();
+		int line = 0;
+		while (line < lineCount)
+		{
+			if (tableLines[line])
+			{
+				final int tableEnd = tableEnd(line);
+				result.add(new LineRange(line + 1, tableEnd + 1));
+				line = tableEnd;
+			}
+			line++;
+		}
+		return result;
+	}
+
+	/**
+	 * Formats all tables in the document.
+	 *
+	 * @return the edits that format the document; see {@link #edit(int, int, String)}
+	 */
+	public List<TextEdit> format()
+	{
+		return formatTables(0, lineCount - 1);
+	}
+
+	/**
+	 * Replaces <code>length</code> characters at <code>offset</code> with the replacement, and formats the tables that this touches.
+	 *
+	 * @return the edits that format the touched tables. They are sorted by offset and do not overlap.
+	 *         Their offsets are relative to the document right after the replacement; so when applying them one by one, start with the last one.
+	 *         They are already applied to the document of this formatter.
+	 */
+	public List<TextEdit> edit(final int offset, final int length, final String replacement)
+	{
+		if (offset < 0 || length < 0 || offset + length > text.length())
+		{
+			throw new IndexOutOfBoundsException("Can not replace " + length + " characters at " + offset + " in a document of " + text.length() + " characters");
+		}
+
+		// The line before the edit is rescanned too, in case the edit joins a \r at its end with a \n
+		final int firstLine = Math.max(lineAt(offset) - 1, 0);
+		final int lastLine = lineAt(offset + length);
+
+		text.replace(offset, offset + length, replacement);
+		final int delta = replacement.length() - length;
+
+		// The lines after the last line are not touched by the edit; they only move
+		final boolean isLastLine = lastLine + 1 == lineCount;
+		final int end = isLastLine ? text.length() : lineStarts[lastLine + 1] + delta;
+		final int[] starts = scanLines(lineStarts[firstLine], end, isLastLine);
+		replaceLines(firstLine, lastLine + 1, starts, delta);
+
+		// Include the line after the edited lines, in case the edit split a table in two
+		return formatTables(firstLine, Math.min(firstLine + starts.length, lineCount - 1));
+	}
+
+	/**
+	 * Formats every table that has a line between the first and last line (inclusive), and applies the result to the document.
+	 */
+	private List<TextEdit> formatTables(final int firstLine, final int lastLine)
+	{
+		final List<TextEdit> edits = new ArrayList<>();
+		int line = firstLine;
+		while (line <= lastLine)
+		{
+			if (tableLines[line])
+			{
+				final int tableEnd = tableEnd(line);
+				formatTable(tableStart(line), tableEnd, edits);
+				line = tableEnd;
+			}
+			line++;
+		}
+
+		applyToDocument(edits);
+		return Collections.unmodifiableList(edits);
+	}
+
+	private void formatTable(final int firstLine, final int lastLine, final List<TextEdit> edits)
+	{
+		table.setLength(0);
+		for (int line = firstLine; line <= lastLine; line++)
+		{
+			if (line > firstLine)
+			{
+				table.append('\n');
+			}
+			table.append(text, lineStarts[line], contentEnd(line));
+		}
+
+		formattedTable.setLength(0);
+		try
+		{
+			tableFormatter.format(table, 0, table.length());
+			tableFormatter.flushTable();
+		}
+		catch (IOException e)
+		{
+			// Can not happen; we write to a StringBuilder
+			throw new PipeTableFormatterException("Error while formatting table", e);
+		}
+
+		final String lineSeparator = System.lineSeparator();
+		if (formattedTable.length() == 0)
+		{
+			// A table without any content is left out entirely by the TableFormatter. In an editor, that would make the line that is being typed disappear; so we leave it alone.
+			return;
+		}
+
+		int formattedStart = 0;
+		for (int line = firstLine; line <= lastLine; line++)
+		{
+			final int formattedEnd = formattedTable.indexOf(lineSeparator, formattedStart);
+			addEdit(lineStarts[line], contentEnd(line), formattedStart, formattedEnd, edits);
+			formattedStart = formattedEnd + lineSeparator.length();
+		}
+	}
+
+	/**
+	 * Adds the smallest edit that turns the text between start and end into the formatted text between formattedStart and formattedEnd, if they differ.
+	 */
+	private void addEdit(final int start, final int end, final int formattedStart, final int formattedEnd, final List<TextEdit> edits)
+	{
+		final int maxCommon = Math.min(end - start, formattedEnd - formattedStart);
+
+		int prefix = 0;
+		while (prefix < maxCommon && text.charAt(start + prefix) == formattedTable.charAt(formattedStart + prefix))
+		{
+			prefix++;
+		}
+		if (prefix == maxCommon && end - start == formattedEnd - formattedStart)
+		{
+			// No changes
+			return;
+		}
+
+		int suffix = 0;
+		while (suffix < maxCommon - prefix && text.charAt(end - 1 - suffix) == formattedTable.charAt(formattedEnd - 1 - suffix))
+		{
+			suffix++;
+		}
+
+		edits.add(new TextEdit(start + prefix, end - start - prefix - suffix, formattedTable.substring(formattedStart + prefix, formattedEnd - suffix)));
+	}
+
+	/**
+	 * Applies the sorted edits to the document. The edits never touch line terminators, so only the line starts move.
+	 */
+	private void applyToDocument(final List<TextEdit> edits)
+	{
+		if (edits.isEmpty())
+		{
+			return;
+		}
+
+		for (int i = edits.size() - 1; i >= 0; i--)
+		{
+			final TextEdit edit = edits.get(i);
+			text.replace(edit.getOffset(), edit.getOffset() + edit.getLength(), edit.getReplacement());
+		}
+
+		int delta = 0;
+		int edit = 0;
+		for (int line = lineAt(edits.get(0).getOffset()) + 1; line < lineCount; line++)
+		{
+			while (edit < edits.size() && edits.get(edit).getOffset() < lineStarts[line])
+			{
+				delta += edits.get(edit).getReplacement().length() - edits.get(edit).getLength();
+				edit++;
+			}
+			lineStarts[line] += delta;
+		}
+	}
+
+	/**
+	 * @param start the start of a line
+	 * @param end the start of a line, or the end of the document
+	 * @param includeEnd whether a line that starts at the end should be included
+	 * @return the starts of the lines from start up to end
+	 */
+	private int[] scanLines(final int start, final int end, final boolean includeEnd)
+	{
+		int[] result = new int[16];
+		int count = 0;
+
+		int position = start;
+		result[count++] = position;
+		while (position < end)
+		{
+			final char c = text.charAt(position++);
+			if (c == '\r' && position < text.length() && text.charAt(position) == '\n')
+			{
+				position++;
+			}
+			if ((c == '\n' || c == '\r') && (position < end || includeEnd))
+			{
+				if (count == result.length)
+				{
+					result = Arrays.copyOf(result, count * 2);
+				}
+				result[count++] = position;
+			}
+		}
+		return Arrays.copyOf(result, count);
+	}
+
+	/**
+	 * Replaces the lines from (inclusive) to to (exclusive) with lines starting at the given positions, and moves the lines after them by delta.
+	 */
+	private void replaceLines(final int from, final int to, final int[] starts, final int delta)
+	{
+		final int newLineCount = lineCount - (to - from) + starts.length;
+		if (newLineCount > lineStarts.length)
+		{
+			final int capacity = Math.max(newLineCount, lineStarts.length * 2);
+			lineStarts = Arrays.copyOf(lineStarts, capacity);
+			tableLines = Arrays.copyOf(tableLines, capacity);
+		}
+
+		System.arraycopy(lineStarts, to, lineStarts, from + starts.length, lineCount - to);
+		System.arraycopy(tableLines, to, tableLines, from + starts.length, lineCount - to);
+		lineCount = newLineCount;
+
+		for (int line = from + starts.length; line < lineCount; line++)
+		{
+			lineStarts[line] += delta;
+		}
+		System.arraycopy(starts, 0, lineStarts, from, starts.length);
+		for (int line = from; line < from + starts.length; line++)
+		{
+			tableLines[line] = isTableLine(line);
+		}
+	}
+
+	private boolean isTableLine(final int line)
+	{
+		final int start = lineStarts[line];
+		final int end = contentEnd(line);
+
+		int firstPipe = -1;
+		int lastPipe = -1;
+		int comment = -1;
+		for (int i = start; i < end; i++)
+		{
+			final char c = text.charAt(i);
+			if (c == TableFormatter.COLUMN_SEPARATOR)
+			{
+				if (firstPipe < 0)
+				{
+					firstPipe = i;
+				}
+				lastPipe = i;
+			}
+			else if (comment < 0 && c == TableFormatter.LINE_COMMENT.charAt(0) && end - i >= TableFormatter.LINE_COMMENT.length()
+					&& text.substring(i, i + TableFormatter.LINE_COMMENT.length()).equals(TableFormatter.LINE_COMMENT))
+			{
+				comment = i;
+			}
+		}
+		return TableFormatter.isTableLine(firstPipe, lastPipe, comment);
+	}
+
+	/**
+	 * @return the offset right after the content of the line; that is where its terminator starts
+	 */
+	private int contentEnd(final int line)
+	{
+		final int start = lineStarts[line];
+		int end = line + 1 < lineCount ? lineStarts[line + 1] : text.length();
+		if (end > start && text.charAt(end - 1) == '\n')
+		{
+			end--;
+		}
+		if (end > start && text.charAt(end - 1) == '\r')
+		{
+			end--;
+		}
+		return end;
+	}
+
+	/**
+	 * @return the line that contains the offset; an offset on a line terminator belongs to the line it terminates
+	 */
+	private int lineAt(final int offset)
+	{
+		final int index = Arrays.binarySearch(lineStarts, 0, lineCount, offset);
+		return index >= 0 ? index : -index - 2;
+	}
+
+	private int tableStart(final int line)
+	{
+		int result = line;
+		while (result > 0 && tableLines[result - 1])
+		{
+			result--;
+		}
+		return result;
+	}
+
+	private int tableEnd(final int line)
+	{
+		int result = line;
+		while (result + 1 < lineCount && tableLines[result + 1])
+		{
+			result++;
+		}
+		return result;
+	}
+}
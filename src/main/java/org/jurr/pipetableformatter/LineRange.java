@@ -0,0 +1,49 @@
+package org.jurr.pipetableformatter;
+
+/**
+ * A range of lines in a file. Line numbers start at 1, and both the first and the last line are part of the range.
+ */
+public final class LineRange
+{
+	private final int firstLine;
+	private final int lastLine;
+
+	LineRange(final int firstLine, final int lastLine)
+	{
+		this.firstLine = firstLine;
+		this.lastLine = lastLine;
+	}
+
+	public int getFirstLine()
+	{
+		return firstLine;
+	}
+
+	public int getLastLine()
+	{
+		return lastLine;
+	}
+
+	@Override
+	public boolean equals(final Object obj)
+	{
+		if (!(obj instanceof LineRange))
+		{
+			return false;
+		}
+		final LineRange other = (LineRange) obj;
+		return firstLine == other.firstLine && lastLine == other.lastLine;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return 31 * firstLine + lastLine;
+	}
+
+	@Override
+	public String toString()
+	{
+		return firstLine == lastLine ? Integer.toString(firstLine) : firstLine + "-" + lastLine;
+	}
+}
@@ -1,9 +1,12 @@
 package org.jurr.pipetableformatter;
 
 import java.io.IOException;
+import java.io.PrintStream;
 import java.net.URISyntaxException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.ParameterException;
@@ -11,8 +14,9 @@ import com.beust.jcommander.ParameterException;
 @SuppressWarnings("squid:S106") // Suppress Sonar warning "Replace this use of System.out or System.err by a logger."
 public class Main
 {
-	private static final int EXIT_OK = 0;
-	private static final int EXIT_CMDLINE_INVALID = 1;
+	static final int EXIT_OK = 0;
+	static final int EXIT_CMDLINE_INVALID = 1;
+	static final int EXIT_NOT_FORMATTED = 2;
 
 	public static void main(final String[] args) throws InterruptedException, IOException
 	{
@@ -35,19 +39,274 @@ public class Main
 			System.exit(EXIT_OK);
 		}
 
-		if (Settings.INSTANCE.isWatch())
+		final String error = validate(Settings.INSTANCE);
+		if (error != null)
+		{
+			System.err.println(error);
+			jCommander.usage();
+			System.exit(EXIT_CMDLINE_INVALID);
+		}
+
+		if (Settings.INSTANCE.isDaemon())
+		{
+			final Daemon daemon = new Daemon(Settings.INSTANCE.getDaemonFile(), Settings.INSTANCE.getDaemonIdleTimeout());
+			registerMBean(daemon.getStats());
+			daemon.run();
+			return;
+		}
+
+		if (Settings.INSTANCE.isClient())
+		{
+			final Integer exitCode = Daemon.request(Settings.INSTANCE.getDaemonFile(), args);
+			if (exitCode != null)
+			{
+				System.exit(exitCode);
+			}
+			// No daemon is running, so we do the work ourselves
+		}
+
+		if (Settings.INSTANCE.isFilter())
+		{
+			new StreamFilter(System.in, System.out, Settings.INSTANCE.getFilterFraming()).run();
+		}
+		else if (Settings.INSTANCE.isWatch())
 		{
 			watchDirectoriesForChanges();
 		}
 		else
 		{
-			new PipeTableFormatter().pipeTablesInDirectories(Settings.INSTANCE.getFilesOrDirectories(), Settings.INSTANCE.getFileMask());
+			final int exitCode = formatOnce(Settings.INSTANCE, System.out, null);
+			if (exitCode != EXIT_OK)
+			{
+				System.exit(exitCode);
+			}
+		}
+	}
+
+	/**
+	 * @return a message describing what is wrong with the settings, or <code>null</code> when they are fine
+	 */
+	static String validate(final Settings settings)
+	{
+		if (settings.getThreads() < 1)
+		{
+			return "The number of threads should be at least 1";
+		}
+
+		if (settings.getVirtualThreads() < 0 || (settings.getVirtualThreads() > 0 && !VirtualThreads.isSupported()))
+		{
+			return "The number of virtual threads should be at least 0, and virtual threads need Java 21 or newer";
+		}
+
+		if (settings.isWatch() && settings.isCheck())
+		{
+			return "Checking is not possible while watching for changes";
+		}
+
+		if (settings.isWatch() && (settings.getVirtualThreads() > 0 || settings.isGitStaged() || settings.getGitChangedSince() != null))
+		{
+			return "Watching for changes can not be combined with virtual threads or git";
+		}
+
+		if (settings.isFailFast() && !settings.isCheck())
+		{
+			return "The --fail-fast option can only be used together with --check";
+		}
+
+		if (settings.isGitStaged() && settings.getGitChangedSince() != null)
+		{
+			return "Only one of --git-staged and --git-changed-since can be given";
+		}
+
+		if (settings.getGitChangedSince() != null && !GitFiles.isValidRef(settings.getGitChangedSince()))
+		{
+			return "The commit of --git-changed-since can not be empty, or start with '-'";
+		}
+
+		if (settings.isDaemon() && (settings.isWatch() || settings.isClient()))
+		{
+			return "The daemon can not watch for changes, or be a client";
+		}
+
+		if (settings.isFilter() && (settings.isWatch() || settings.isDaemon() || settings.isClient() || settings.isCheck() || settings.isGitStaged() || settings.getGitChangedSince() != null))
+		{
+			return "Filtering can not be combined with watching, the daemon, checking or git";
+		}
+
+		if (!settings.isFilter() && settings.getFilesOrDirectories().isEmpty())
+		{
+			return "Give the files or directories to format";
+		}
+
+		if (settings.getFilterFraming() == null)
+		{
+			return "The --filter-batch should be nul or length";
+		}
+
+		if (settings.getWriteStrategy() == null)
+		{
+			return "The --write-strategy should be rename, in-place or reflink";
+		}
+
+		if (settings.getStreamingThreshold() < 0)
+		{
+			return "The streaming threshold can not be negative";
+		}
+
+		if (settings.getParallelTablesThreshold() < 0)
+		{
+			return "The parallel tables threshold can not be negative";
+		}
+
+		if (settings.getPollInterval() < 1)
+		{
+			return "The poll interval should be at least 1 millisecond";
+		}
+
+		if (settings.getDebounce() < 0)
+		{
+			return "The debounce time can not be negative";
+		}
+
+		if (settings.getDaemonIdleTimeout() < 1)
+		{
+			return "The daemon idle timeout should be at least 1 second";
+		}
+
+		return null;
+	}
+
+	/**
+	 * Formats (or checks) the files once, as the settings say.
+	 *
+	 * @param out where to report unformatted files (and statistics) to
+	 * @param totalStats when not <code>null</code>, the statistics of this run are added to these
+	 * @return the exit code
+	 */
+	static int formatOnce(final Settings settings, final PrintStream out, final FormatStats totalStats)
+	{
+		final PipeTableFormatter pipeTableFormatter = new PipeTableFormatter();
+		configure(pipeTableFormatter, settings);
+
+		final Path cacheFile = settings.getCacheFile();
+		return formatOnce(settings, pipeTableFormatter, cacheFile == null ? null : FormatCache.load(cacheFile), out, totalStats);
+	}
+
+	/**
+	 * Same as {@link #formatOnce(Settings, PrintStream, FormatStats)}, with a formatter that is already configured, and the cache (if any) that was loaded from the cache file of the settings.
+	 */
+	static int formatOnce(final Settings settings, final PipeTableFormatter pipeTableFormatter, final FormatCache cache, final PrintStream out, final FormatStats totalStats)
+	{
+		pipeTableFormatter.setCache(cache);
+
+		final AtomicBoolean unformattedFilesFound = new AtomicBoolean();
+		if (settings.isCheck())
+		{
+			pipeTableFormatter.setUnformattedFileListener((file, tables) -> {
+				unformattedFilesFound.set(true);
+				reportUnformattedFile(file, tables, out);
+			});
+		}
+
+		if (settings.isGitStaged() || settings.getGitChangedSince() != null)
+		{
+			pipeTableFormatter.pipeTablesInGitChanges(settings.getFilesOrDirectories(), settings.getFileMasks(), settings.getGitChangedSince());
+		}
+		else
+		{
+			pipeTableFormatter.pipeTablesInDirectories(settings.getFilesOrDirectories(), settings.getFileMasks());
+		}
+
+		if (cache != null)
+		{
+			cache.save();
+		}
+
+		reportStats(settings, pipeTableFormatter.getStats(), out);
+		if (totalStats != null)
+		{
+			totalStats.add(pipeTableFormatter.getStats());
+		}
+
+		return unformattedFilesFound.get() ? EXIT_NOT_FORMATTED : EXIT_OK;
+	}
+
+	/**
+	 * Applies the settings that tell how to format (and write) files to the formatter; everything but the cache and the listeners.
+	 */
+	static void configure(final PipeTableFormatter pipeTableFormatter, final Settings settings)
+	{
+		pipeTableFormatter.setMemoryMapThreshold(settings.getMemoryMapThreshold());
+		pipeTableFormatter.setStreamingThreshold(settings.getStreamingThreshold());
+		pipeTableFormatter.setParallelTablesThreshold(settings.getParallelTablesThreshold());
+		pipeTableFormatter.setThreads(settings.getThreads());
+		pipeTableFormatter.setVirtualThreads(settings.getVirtualThreads());
+		pipeTableFormatter.setExcludes(settings.getExcludes());
+		pipeTableFormatter.setIgnoreFiles(settings.isIgnoreFiles());
+		pipeTableFormatter.setWriteStrategy(settings.getWriteStrategy());
+		pipeTableFormatter.setSync(settings.isFsync());
+		pipeTableFormatter.setCheck(settings.isCheck());
+		pipeTableFormatter.setFailFast(settings.isFailFast());
+	}
+
+	private static void reportStats(final Settings settings, final FormatStats stats, final PrintStream out)
+	{
+		if (settings.isStats())
+		{
+			stats.printSummary(out);
+		}
+
+		final Path statsJsonFile = settings.getStatsJsonFile();
+		if (statsJsonFile != null)
+		{
+			stats.writeJson(statsJsonFile);
+		}
+	}
+
+	/**
+	 * Makes the statistics available over JMX. As they are only nice to have, we carry on when that fails.
+	 */
+	private static void registerMBean(final FormatStats stats)
+	{
+		try
+		{
+			stats.registerMBean();
+		}
+		catch (PipeTableFormatterException | LinkageError | UnsupportedOperationException e)
+		{
+			System.err.println("Statistics are not available over JMX: " + e.getMessage());
+		}
+	}
+
+	private static void reportUnformattedFile(final Path file, final List<LineRange> tables, final PrintStream out)
+	{
+		if (tables.isEmpty())
+		{
+			out.println(file + ": line terminators are not formatted");
+		}
+		for (LineRange table : tables)
+		{
+			out.println(file + ":" + table + ": table is not formatted");
 		}
 	}
 
 	private static void watchDirectoriesForChanges() throws IOException, InterruptedException
 	{
-		final Watcher watcher = new Watcher(Settings.INSTANCE.getFilesOrDirectories(), Settings.INSTANCE.getFileMask());
+		final PipeTableFormatter pipeTableFormatter = new PipeTableFormatter();
+		configure(pipeTableFormatter, Settings.INSTANCE);
+		final Path cacheFile = Settings.INSTANCE.getCacheFile();
+		final FormatCache cache = cacheFile == null ? null : FormatCache.load(cacheFile);
+		pipeTableFormatter.setCache(cache);
+
+		final Watcher watcher = new Watcher(Settings.INSTANCE.getFilesOrDirectories(), new FileMasks(Settings.INSTANCE.getFileMasks(), Settings.INSTANCE.getExcludes()), pipeTableFormatter);
+		watcher.setIgnoreFiles(Settings.INSTANCE.isIgnoreFiles());
+		watcher.setPolling(Settings.INSTANCE.isWatchPolling() || !isWatchServiceSupported());
+		watcher.setPollIntervalMillis(Settings.INSTANCE.getPollInterval());
+		watcher.setThreads(Settings.INSTANCE.getThreads());
+		watcher.setDebounceMillis(Settings.INSTANCE.getDebounce());
+		final FormatStats stats = new FormatStats();
+		watcher.setStats(stats);
+		registerMBean(stats);
 		final Thread watcherThread = new Thread(watcher);
 		watcherThread.start();
 
@@ -57,6 +316,19 @@ public class Main
 
 		watcher.stop();
 		watcherThread.join();
+		if (cache != null)
+		{
+			cache.save();
+		}
+		reportStats(Settings.INSTANCE, stats, System.out);
+	}
+
+	/**
+	 * @return whether the {@link java.nio.file.WatchService} can be used; if not, we poll for changes
+	 */
+	private static boolean isWatchServiceSupported()
+	{
+		return true;
 	}
 
 	private static String getCurrentExecutable()
@@ -0,0 +1,153 @@
+package org.jurr.pipetableformatter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Gives up the formatting permit (see {@link FormatterPool}) while the target is opened, written to and closed, and takes it back afterwards.
+ * So the latency of the file system (creating a temporary file on a network file system, or syncing a file to disk) does not keep other files from being formatted.
+ * <p>
+ * The output is collected in a buffer, so the permit changes hands once per buffer, rather than for every row. The thread that uses the target must hold a permit.
+ */
+final class PermitReleasingTarget implements ChangeDetectingOutputStream.Target
+{
+	private final ChangeDetectingOutputStream.Target target;
+	private final FormatterPool pool;
+	private final byte[] buffer;
+
+	/**
+	 * @param buffer where the output is collected; it is only used until the stream is closed
+	 */
+	PermitReleasingTarget(final ChangeDetectingOutputStream.Target target, final FormatterPool pool, final byte[] buffer)
+	{
+		this.target = target;
+		this.pool = pool;
+		this.buffer = buffer;
+	}
+
+	@Override
+	public OutputStream open() throws IOException
+	{
+		pool.releasePermit();
+		try
+		{
+			return new PermitReleasingOutputStream(target.open());
+		}
+		finally
+		{
+			pool.acquirePermit();
+		}
+	}
+
+	@Override
+	public OutputStream openAfter(final ByteBuffer identical) throws IOException
+	{
+		pool.releasePermit();
+		try
+		{
+			final OutputStream out = target.openAfter(identical);
+			return out == null ? null : new PermitReleasingOutputStream(out);
+		}
+		finally
+		{
+			pool.acquirePermit();
+		}
+	}
+
+	private final class PermitReleasingOutputStream extends OutputStream
+	{
+		private final OutputStream out;
+		private int count;
+
+		PermitReleasingOutputStream(final OutputStream out)
+		{
+			this.out = out;
+		}
+
+		@Override
+		public void write(final int b) throws IOException
+		{
+			if (count == buffer.length)
+			{
+				flushBuffer();
+			}
+			buffer[count++] = (byte) b;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException
+		{
+			if (len > buffer.length - count)
+			{
+				flushBuffer();
+			}
+			if (len >= buffer.length)
+			{
+				pool.releasePermit();
+				try
+				{
+					out.write(b, off, len);
+				}
+				finally
+				{
+					pool.acquirePermit();
+				}
+				return;
+			}
+			System.arraycopy(b, off, buffer, count, len);
+			count += len;
+		}
+
+		@Override
+		public void flush() throws IOException
+		{
+			pool.releasePermit();
+			try
+			{
+				writeBuffer();
+				out.flush();
+			}
+			finally
+			{
+				pool.acquirePermit();
+			}
+		}
+
+		@Override
+		public void close() throws IOException
+		{
+			pool.releasePermit();
+			try (OutputStream o = out)
+			{
+				writeBuffer();
+			}
+			finally
+			{
+				pool.acquirePermit();
+			}
+		}
+
+		private void flushBuffer() throws IOException
+		{
+			pool.releasePermit();
+			try
+			{
+				writeBuffer();
+			}
+			finally
+			{
+				pool.acquirePermit();
+			}
+		}
+
+		private void writeBuffer() throws IOException
+		{
+			if (count > 0)
+			{
+				out.write(buffer, 0, count);
+				count = 0;
+			}
+		}
+	}
+}
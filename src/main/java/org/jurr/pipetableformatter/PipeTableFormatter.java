@@ -1,93 +1,578 @@
 package org.jurr.pipetableformatter;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintStream;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.FileSystems;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
-import java.nio.file.StandardCopyOption;
-import java.util.Arrays;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.stream.Stream;
+import java.util.Objects;
+import java.util.function.BiConsumer;
+
+import org.jurr.pipetableformatter.FormatStats.Phase;
 
 public class PipeTableFormatter
 {
-	public void pipeTablesInDirectories(final List<Path> directories, final String fileMask)
+	/**
+	 * The default size from which on files are memory mapped, instead of read into the heap.
+	 */
+	public static final long DEFAULT_MEMORY_MAP_THRESHOLD = 64L * 1024 * 1024;
+
+	/**
+	 * The default size from which on tables are formatted one row at a time.
+	 */
+	public static final int DEFAULT_STREAMING_THRESHOLD = Utf8Formatter.DEFAULT_STREAMING_THRESHOLD;
+
+	/**
+	 * The default size from which on the tables in a file are formatted concurrently.
+	 */
+	public static final long DEFAULT_PARALLEL_TABLES_THRESHOLD = 1024L * 1024;
+
+	private long memoryMapThreshold = DEFAULT_MEMORY_MAP_THRESHOLD;
+	private int streamingThreshold = DEFAULT_STREAMING_THRESHOLD;
+	private long parallelTablesThreshold = DEFAULT_PARALLEL_TABLES_THRESHOLD;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int virtualThreads;
+	private FormatCache cache;
+	private boolean check;
+	private boolean failFast;
+	private BiConsumer<Path, List<LineRange>> unformattedFileListener;
+	private FormatStats stats = new FormatStats();
+	private List<String> excludes = Collections.emptyList();
+	private boolean ignoreFiles = true;
+	private WriteStrategy writeStrategy = WriteStrategy.RENAME;
+	private boolean sync;
+	private final Reflinks reflinks = new Reflinks();
+
+	/**
+	 * The formatting permits, the contexts that are not in use, and the pool in which tables are formatted concurrently; see {@link #setThreads(int)}.
+	 */
+	private FormatterPool formatterPool = new FormatterPool(threads);
+
+	/**
+	 * Files of at least this size (in bytes) are memory mapped, and their output is streamed into the temporary file that replaces them.
+	 * This keeps the heap usage independent of the file size. Note that on Windows, a file can not be replaced while it is mapped.
+	 */
+	public void setMemoryMapThreshold(final long memoryMapThreshold)
 	{
-		directories.parallelStream().forEach(p -> pipeTablesInDirectory(p, fileMask));
+		this.memoryMapThreshold = memoryMapThreshold;
 	}
 
-	private void pipeTablesInDirectory(final Path directory, final String fileMask)
+	/**
+	 * Tables of at least this size (in bytes) are formatted in two passes over the file content: one to find the column widths, and one to format the rows.
+	 * Only one row is kept in memory at a time. Together with {@link #setMemoryMapThreshold(long)}, this keeps the heap usage independent of the table size.
+	 */
+	public void setStreamingThreshold(final int streamingThreshold)
 	{
-		final String javaNioFileMask = "glob:**/" + fileMask;
-		final PathMatcher pathMatcher = FileSystems.getDefault().getPathMatcher(javaNioFileMask);
+		if (streamingThreshold < 0)
+		{
+			throw new IllegalArgumentException("The streaming threshold can not be negative, but is " + streamingThreshold);
+		}
+		this.streamingThreshold = streamingThreshold;
+	}
 
-		try (Stream<Path> allFiles = Files.walk(directory))
+	/**
+	 * In files of at least this size (in bytes), the tables are formatted concurrently in a fork-join pool of {@link #setThreads(int)} threads, and written in order.
+	 * This keeps a few large files with many tables from holding up the end of a run. Tables are only formatted concurrently while not all threads are busy formatting.
+	 */
+	public void setParallelTablesThreshold(final long parallelTablesThreshold)
+	{
+		if (parallelTablesThreshold < 0)
 		{
-			allFiles.parallel().filter(pathMatcher::matches).forEach(this::pipeTablesInFile);
+			throw new IllegalArgumentException("The parallel tables threshold can not be negative, but is " + parallelTablesThreshold);
 		}
-		catch (IOException e)
+		this.parallelTablesThreshold = parallelTablesThreshold;
+	}
+
+	/**
+	 * The number of threads that format the files found by {@link #pipeTablesInDirectories(List, List)}. Defaults to the number of available processors.
+	 * No more than this many threads are formatting at the same time; that includes the threads that format the tables of large files concurrently (see {@link #setParallelTablesThreshold(long)}),
+	 * and the threads that call {@link #pipeTablesInFile(Path)}.
+	 */
+	public void setThreads(final int threads)
+	{
+		if (threads < 1)
 		{
-			throw new PipeTableFormatterException("Error while listing files in directory", e);
+			throw new IllegalArgumentException("Need at least one thread, not " + threads);
 		}
+		this.threads = threads;
+		formatterPool = new FormatterPool(threads);
 	}
 
-	public void pipeTablesInFile(final Path storyFile)
+	/**
+	 * Shares the formatting permits, and the contexts with their buffers, with other formatters; the daemon does so for all requests with the same number of threads.
+	 * The number of threads becomes that of the pool.
+	 */
+	void setFormatterPool(final FormatterPool formatterPool)
 	{
-		try
+		this.threads = formatterPool.getThreads();
+		this.formatterPool = formatterPool;
+	}
+
+	/**
+	 * When set to more than zero, {@link #pipeTablesInDirectories(List, List)} processes this many files at the same time, each on its own virtual thread.
+	 * Only the formatting itself is still limited to {@link #setThreads(int)} threads at the same time.
+	 * This helps on file systems where reading and replacing a file is dominated by latency, like network file systems.
+	 *
+	 * @throws UnsupportedOperationException when the running Java does not support virtual threads (which need Java 21 or newer)
+	 */
+	public void setVirtualThreads(final int virtualThreads)
+	{
+		if (virtualThreads < 0)
 		{
-			final byte[] oldContent = Files.readAllBytes(storyFile);
-			final int assumedNewContentSize = (int) (oldContent.length * 1.1d);
+			throw new IllegalArgumentException("The number of virtual threads can not be negative, but is " + virtualThreads);
+		}
+		if (virtualThreads > 0 && !VirtualThreads.isSupported())
+		{
+			throw new UnsupportedOperationException("Virtual threads need Java 21 or newer");
+		}
+		this.virtualThreads = virtualThreads;
+	}
+
+	/**
+	 * When a cache is set, files that it knows to be formatted are skipped, and every formatted file is recorded in it.
+	 * It is up to the caller to {@link FormatCache#save()} the cache afterwards.
+	 */
+	public void setCache(final FormatCache cache)
+	{
+		this.cache = cache;
+	}
 
-			try (final ByteArrayOutputStream baos = new ByteArrayOutputStream(assumedNewContentSize); //
-					final PrintStream ps = new PrintStream(baos, false, StandardCharsets.UTF_8.name()); //
-					final ByteArrayInputStream bais = new ByteArrayInputStream(oldContent); //
-					final InputStreamReader isr = new InputStreamReader(bais, StandardCharsets.UTF_8))
+	/**
+	 * When set, files are only checked: nothing is written. Use {@link #setUnformattedFileListener(BiConsumer)} to find out which files are not formatted.
+	 */
+	public void setCheck(final boolean check)
+	{
+		this.check = check;
+	}
+
+	/**
+	 * When set while checking (see {@link #setCheck(boolean)}), {@link #pipeTablesInDirectories(List, List)} stops as soon as it finds a file that is not formatted.
+	 * Files that are being processed at that moment are finished, but files that are still waiting are skipped. When not checking, this has no effect: every file is formatted.
+	 */
+	public void setFailFast(final boolean failFast)
+	{
+		this.failFast = failFast;
+	}
+
+	/**
+	 * Is called for every file that is not formatted, with the line ranges of the tables in it that are not formatted.
+	 * The list of line ranges is empty when only the line terminators of the file are not formatted.
+	 * The listener may be called from several threads at the same time.
+	 */
+	public void setUnformattedFileListener(final BiConsumer<Path, List<LineRange>> unformattedFileListener)
+	{
+		this.unformattedFileListener = unformattedFileListener;
+	}
+
+	/**
+	 * Where to count what we do, and where the time goes. Several formatters may share the same statistics.
+	 */
+	public void setStats(final FormatStats stats)
+	{
+		this.stats = Objects.requireNonNull(stats);
+	}
+
+	public FormatStats getStats()
+	{
+		return stats;
+	}
+
+	/**
+	 * Files matching any of these masks are skipped, even when they match the file masks. A directory matching any of them is skipped as a whole.
+	 * Like the file masks, a mask without a <code>/</code> is matched against the file name, and a mask with a <code>/</code> against the end of the path.
+	 */
+	public void setExcludes(final List<String> excludes)
+	{
+		this.excludes = new ArrayList<>(excludes);
+	}
+
+	/**
+	 * When set (the default), the files and directories that the <code>.gitignore</code> and <code>.pipetableformatterignore</code> files in the walked directories ignore, are skipped.
+	 * Only the ignore files in (or below) the given directories are read.
+	 */
+	public void setIgnoreFiles(final boolean ignoreFiles)
+	{
+		this.ignoreFiles = ignoreFiles;
+	}
+
+	/**
+	 * How files that need formatting are written. The default is {@link WriteStrategy#RENAME}.
+	 */
+	public void setWriteStrategy(final WriteStrategy writeStrategy)
+	{
+		this.writeStrategy = Objects.requireNonNull(writeStrategy);
+	}
+
+	/**
+	 * When set, every file that is written is synced to disk, and so is every directory in which a file was replaced; once per directory, after all files are written.
+	 * Without this, a crash of the operating system shortly after formatting may leave us with old, empty or (with {@link WriteStrategy#IN_PLACE}) half written files.
+	 */
+	public void setSync(final boolean sync)
+	{
+		this.sync = sync;
+	}
+
+	/**
+	 * Same as {@link #pipeTablesInDirectories(List, List)}, with a single file mask.
+	 */
+	public void pipeTablesInDirectories(final List<Path> directories, final String fileMask)
+	{
+		pipeTablesInDirectories(directories, Collections.singletonList(fileMask));
+	}
+
+	/**
+	 * Formats all files matching any of the file masks in the given files or directories; see {@link #setExcludes(List)} and {@link #setIgnoreFiles(boolean)} for the files that are skipped.
+	 * The directories are walked concurrently, and the matching files are handed over to the formatting threads; see {@link #setThreads(int)} and {@link #setVirtualThreads(int)}.
+	 */
+	public void pipeTablesInDirectories(final List<Path> directories, final List<String> fileMasks)
+	{
+		final DirectoryWalker walker = new DirectoryWalker(new FileMasks(fileMasks, excludes), ignoreFiles, threads, stats);
+		pipeTablesIn(pipeline -> {
+			for (Path directory : directories)
 			{
-				final TableFormatter table = new TableFormatter(ps);
+				if (!walker.walk(directory, pipeline::submit))
+				{
+					return false;
+				}
+			}
+			return true;
+		});
+	}
+
+	/**
+	 * Same as {@link #pipeTablesInGitChanges(List, List, String)}, with a single file mask.
+	 */
+	public void pipeTablesInGitChanges(final List<Path> filesOrDirectories, final String fileMask, final String ref)
+	{
+		pipeTablesInGitChanges(filesOrDirectories, Collections.singletonList(fileMask), ref);
+	}
 
-				table.format(isr);
+	/**
+	 * Formats the files matching any of the file masks in the given files or directories, that git says have changed. This needs a <code>git</code> binary on the path.
+	 * The excludes apply, but the ignore files are left to git; see {@link #setExcludes(List)}.
+	 *
+	 * @param ref when <code>null</code>, the files with changes that are staged in the index are formatted.
+	 *            Otherwise, the files that differ from this commit (whether committed, staged or not) are formatted, together with the untracked files.
+	 */
+	public void pipeTablesInGitChanges(final List<Path> filesOrDirectories, final List<String> fileMasks, final String ref)
+	{
+		final FileMasks pathMatcher = new FileMasks(fileMasks, excludes);
+		pipeTablesIn(pipeline -> {
+			for (Path fileOrDirectory : filesOrDirectories)
+			{
+				final boolean isDirectory = Files.isDirectory(fileOrDirectory);
+				final Path absoluteFileOrDirectory = fileOrDirectory.toAbsolutePath().normalize();
+				final Path directory = isDirectory ? fileOrDirectory : absoluteFileOrDirectory.getParent();
+				if (directory == null)
+				{
+					throw new IllegalArgumentException(fileOrDirectory + " has no parent");
+				}
 
-				table.close();
-				final byte[] newContent = baos.toByteArray();
+				final long walkStart = System.nanoTime();
+				final List<Path> changedFiles = ref == null ? GitFiles.staged(directory) : GitFiles.changedSince(directory, ref);
+				stats.phase(Phase.WALK, System.nanoTime() - walkStart);
 
-				if (!Arrays.equals(newContent, oldContent))
+				for (Path file : changedFiles)
 				{
-					atomicallyWriteFile(storyFile, newContent);
+					final boolean selected = isDirectory || file.toAbsolutePath().normalize().equals(absoluteFileOrDirectory);
+					// A file that was staged, and deleted since, is still listed
+					if (selected && pathMatcher.matches(file) && Files.isRegularFile(file) && !pipeline.submit(file))
+					{
+						return false;
+					}
 				}
 			}
+			return true;
+		});
+	}
+
+	/**
+	 * Produces the files to format.
+	 */
+	private interface FileSource
+	{
+		/**
+		 * @return <code>false</code> when the pipeline was cancelled
+		 */
+		boolean submitTo(FilePipeline pipeline) throws InterruptedException;
+	}
+
+	private void pipeTablesIn(final FileSource fileSource)
+	{
+		final DirectorySync directorySync = new DirectorySync();
+		final FilePipeline pipeline;
+		if (virtualThreads > 0)
+		{
+			pipeline = new FilePipeline(virtualThreads, VirtualThreads.threadFactory(), f -> pipeTablesInFile(f, directorySync) || !(check && failFast));
+		}
+		else
+		{
+			pipeline = new FilePipeline(threads, f -> pipeTablesInFile(f, directorySync) || !(check && failFast));
+		}
+		try
+		{
+			fileSource.submitTo(pipeline);
+			pipeline.finish();
+			syncDirectories(directorySync);
+		}
+		catch (InterruptedException e)
+		{
+			pipeline.cancel();
+			Thread.currentThread().interrupt();
+			throw new PipeTableFormatterException("Interrupted while formatting files", e);
+		}
+		catch (RuntimeException e)
+		{
+			pipeline.cancel();
+			throw e;
+		}
+	}
+
+	/**
+	 * Formats the tables in the file, unless only checking; see {@link #setCheck(boolean)}.
+	 *
+	 * @return whether the file was formatted already
+	 */
+	public boolean pipeTablesInFile(final Path storyFile)
+	{
+		final DirectorySync directorySync = new DirectorySync();
+		final boolean result = pipeTablesInFile(storyFile, directorySync);
+		syncDirectories(directorySync);
+		return result;
+	}
+
+	private void syncDirectories(final DirectorySync directorySync)
+	{
+		final long syncStart = System.nanoTime();
+		try
+		{
+			directorySync.syncAll();
 		}
 		catch (IOException e)
 		{
-			throw new PipeTableFormatterException("Error during reading or writing of file", e);
+			throw new PipeTableFormatterException("Error during syncing of directory", e);
 		}
+		stats.phase(Phase.WRITE, System.nanoTime() - syncStart);
 	}
 
-	public String pipeTablesInString(final String input)
+	/**
+	 * A formatting permit is held while formatting, but not while reading the file.
+	 *
+	 * @param directorySync where to add the directories that need to be synced
+	 */
+	private boolean pipeTablesInFile(final Path storyFile, final DirectorySync directorySync)
 	{
-		try (final ByteArrayOutputStream baos = new ByteArrayOutputStream(input.length()); //
-				final PrintStream ps = new PrintStream(baos, false, StandardCharsets.UTF_8.name()))
+		final long start = System.nanoTime();
+		stats.fileScanned();
+		try
 		{
-			final TableFormatter table = new TableFormatter(ps);
+			final BasicFileAttributes attributes = Files.readAttributes(storyFile, BasicFileAttributes.class);
+			if (cache != null && cache.isFormatted(storyFile, attributes))
+			{
+				stats.fileSkipped();
+				return true;
+			}
+
+			final FormatterPool pool = formatterPool;
+			final FormatterContext context = pool.acquireContext();
+			final boolean formatted;
+			if (attributes.size() >= memoryMapThreshold)
+			{
+				formatted = pipeTablesInLargeFile(storyFile, attributes, pool, directorySync, context);
+			}
+			else
+			{
+				final long readStart = System.nanoTime();
+				final ByteBuffer content = context.read(storyFile);
+				stats.phase(Phase.READ, System.nanoTime() - readStart);
+				stats.bytesRead(content.remaining());
 
-			table.format(input);
+				formatted = pipeTablesInContent(storyFile, attributes, content, false, pool, directorySync, context);
+			}
 
-			table.close();
-			final byte[] output = baos.toByteArray();
-			return new String(output, StandardCharsets.UTF_8.name());
+			// A context is only reused when the file was done with; after a failure, it may be halfway a table
+			context.fileDone(attributes.size());
+			pool.releaseContext(context);
+			return formatted;
 		}
 		catch (IOException e)
 		{
-			throw new PipeTableFormatterException("Error during reading or writing of string", e);
+			throw new PipeTableFormatterException("Error during reading or writing of file", e);
+		}
+		finally
+		{
+			stats.fileLatency(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Maps the file into memory, so the heap we need does not depend on the size of the file.
+	 */
+	private boolean pipeTablesInLargeFile(final Path storyFile, final BasicFileAttributes attributes, final FormatterPool pool, final DirectorySync directorySync,
+			final FormatterContext context) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(storyFile, StandardOpenOption.READ))
+		{
+			final long size = channel.size();
+			if (size > Integer.MAX_VALUE)
+			{
+				throw new PipeTableFormatterException("Story file " + storyFile + " is too large (" + size + " bytes)");
+			}
+
+			// The pages are read before we get a formatting permit, so the latency of the file system does not keep other files from being formatted
+			final long readStart = System.nanoTime();
+			final MappedByteBuffer content = channel.map(MapMode.READ_ONLY, 0, size);
+			content.load();
+			stats.phase(Phase.READ, System.nanoTime() - readStart);
+			stats.bytesRead(size);
+
+			return pipeTablesInContent(storyFile, attributes, content, true, pool, directorySync, context);
+		}
+	}
+
+	/**
+	 * Formats the content of the story file. The output is compared with the content while it is produced.
+	 * Only when it differs, the output is written as the {@link WriteStrategy} says.
+	 *
+	 * @param mapped whether the content is mapped from the story file
+	 * @return whether the content was formatted already
+	 */
+	private boolean pipeTablesInContent(final Path storyFile, final BasicFileAttributes attributes, final ByteBuffer oldContent, final boolean mapped, final FormatterPool pool,
+			final DirectorySync directorySync, final FormatterContext context) throws IOException
+	{
+		String oldContentHash = null;
+		if (cache != null)
+		{
+			oldContentHash = FormatCache.hash(oldContent, context.getDigest());
+			if (cache.isFormatted(storyFile, oldContentHash))
+			{
+				cache.put(storyFile, attributes, oldContentHash);
+				stats.fileSkipped();
+				return true;
+			}
+		}
+
+		final List<LineRange> changedTables = unformattedFileListener != null ? new ArrayList<>() : null;
+		final MessageDigest digest = cache != null ? context.getDigest() : null;
+		final FileTarget target = FileTarget.create(writeStrategy, storyFile, digest, sync, mapped, reflinks);
+		try
+		{
+			final boolean changed;
+			final long finishStart;
+			final long compareNanos;
+			final long writeNanos;
+			final long bytesWritten;
+			final long formatNanos;
+			// The permit is held while formatting and comparing, but given up while the target is opened, written to and closed
+			pool.acquirePermit();
+			try (ChangeDetectingOutputStream output = new ChangeDetectingOutputStream(oldContent,
+					check ? DiscardingOutputStream::new : new PermitReleasingTarget(target, pool, context.getOutputBuffer())))
+			{
+				formatNanos = format(context.getFormatter(), oldContent, output, pool, changedTables);
+				finishStart = System.nanoTime();
+				changed = output.finish();
+				compareNanos = output.getCompareNanos();
+				writeNanos = output.getWriteNanos();
+				bytesWritten = output.getBytesWritten();
+			}
+			finally
+			{
+				pool.releasePermit();
+			}
+			final long finishNanos = System.nanoTime() - finishStart;
+
+			if (changed && unformattedFileListener != null)
+			{
+				unformattedFileListener.accept(storyFile, changedTables);
+			}
+
+			long replaceNanos = 0;
+			if (changed && !check)
+			{
+				final long replaceStart = System.nanoTime();
+				target.commit(directorySync);
+				replaceNanos = System.nanoTime() - replaceStart;
+				stats.bytesWritten(bytesWritten);
+			}
+
+			// The output is compared and written while it is being formatted
+			stats.phase(Phase.FORMAT, formatNanos - compareNanos - writeNanos);
+			stats.phase(Phase.COMPARE, compareNanos);
+			stats.phase(Phase.WRITE, writeNanos + finishNanos + replaceNanos);
+			if (changed)
+			{
+				stats.fileRewritten();
+			}
+			else
+			{
+				stats.fileUnchanged();
+			}
+
+			if (cache != null)
+			{
+				if (!changed)
+				{
+					cache.put(storyFile, attributes, oldContentHash);
+				}
+				else if (!check)
+				{
+					cache.put(storyFile, Files.readAttributes(storyFile, BasicFileAttributes.class), FormatCache.toHex(digest.digest()));
+				}
+			}
+
+			return !changed;
+		}
+		finally
+		{
+			target.cleanUp();
 		}
 	}
 
-	private void atomicallyWriteFile(final Path path, final byte[] bytes)
+	/**
+	 * Call this while holding a formatting permit.
+	 *
+	 * @return the time it took, in nanoseconds
+	 */
+	private long format(final Utf8Formatter formatter, final ByteBuffer content, final OutputStream output, final FormatterPool pool, final List<LineRange> changedTables) throws IOException
+	{
+		formatter.setChangedTables(changedTables);
+		formatter.setStreamingThreshold(streamingThreshold);
+		formatter.setParallel(pool, parallelTablesThreshold);
+
+		final long tablesBefore = formatter.getTablesFormatted();
+		final long rowsBefore = formatter.getRowsFormatted();
+		final long start = System.nanoTime();
+		formatter.format(content, output);
+		final long nanos = System.nanoTime() - start;
+
+		stats.tablesFormatted(formatter.getTablesFormatted() - tablesBefore, formatter.getRowsFormatted() - rowsBefore);
+		return nanos;
+	}
+
+	public String pipeTablesInString(final String input)
+	{
+		final StringBuilder output = new StringBuilder(input.length());
+
+		final TableFormatter table = new TableFormatter(output);
+		table.format(input);
+		table.close();
+
+		return output.toString();
+	}
+
+	/**
+	 * Creates a temporary file next to the given file, so it can be atomically moved over it.
+	 */
+	static Path createTempFileFor(final Path path) throws IOException
 	{
 		final Path directory = path.getParent();
 		if (directory == null)
@@ -101,15 +586,24 @@ public class PipeTableFormatter
 			throw new IllegalArgumentException("Story file " + path.toString() + " has no filename");
 		}
 
-		try
+		return Files.createTempFile(directory, filename.toString(), null);
+	}
+
+	/**
+	 * Forgets everything that is written to it.
+	 */
+	private static final class DiscardingOutputStream extends OutputStream
+	{
+		@Override
+		public void write(final int b)
 		{
-			final Path tempFile = Files.createTempFile(directory, filename.toString(), null);
-			Files.write(tempFile, bytes);
-			Files.move(tempFile, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			// Discard
 		}
-		catch (IOException e)
+
+		@Override
+		public void write(final byte[] b, final int off, final int len)
 		{
-			throw new PipeTableFormatterException("Error while atomically writing file", e);
+			// Discard
 		}
 	}
-}
\ No newline at end of file
+}
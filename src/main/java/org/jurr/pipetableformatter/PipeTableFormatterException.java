@@ -4,6 +4,11 @@ public class PipeTableFormatterException extends RuntimeException
 {
 	private static final long serialVersionUID = 1L;
 
+	PipeTableFormatterException(final String message)
+	{
+		super(message);
+	}
+
 	PipeTableFormatterException(final String message, final Throwable cause)
 	{
 		super(message, cause);
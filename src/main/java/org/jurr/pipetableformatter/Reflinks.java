@@ -0,0 +1,131 @@
+package org.jurr.pipetableformatter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Makes reflinks (copy-on-write clones) of files, with the <code>cp</code> binary, for {@link WriteStrategy#REFLINK}.
+ * <p>
+ * Starting <code>cp</code> takes a few milliseconds; in that time, a megabyte or so could have been written. So a reflink is only worth it for large files.
+ * Whether reflinks are supported is found out once per file system (per directory, where we can't tell the file systems apart), by making a reflink of a file of our own.
+ * When a reflink of a story file fails after that, it is for a reason of that file, and only that file falls back to {@link WriteStrategy#RENAME}.
+ * This class is thread-safe.
+ */
+final class Reflinks
+{
+	/**
+	 * A reflink is only made when at least this many bytes of the formatted content are the same as the story file.
+	 */
+	static final long MIN_IDENTICAL_BYTES = 1024L * 1024;
+
+	/**
+	 * Whether reflinks are supported, by file system (or by directory).
+	 */
+	private final Map<Object, Boolean> supported = new ConcurrentHashMap<>();
+
+	/**
+	 * @return whether reflinks are supported in the directory of the story file; the first time for a file system, this makes a reflink to find out
+	 */
+	boolean isSupported(final Path storyFile) throws IOException
+	{
+		final Path directory = storyFile.toAbsolutePath().getParent();
+		if (directory == null)
+		{
+			return false;
+		}
+
+		final Object fileSystem = fileSystemOf(directory);
+		final Boolean result = supported.get(fileSystem);
+		if (result != null)
+		{
+			return result;
+		}
+
+		// Another thread may be probing the same file system right now; that is harmless
+		final boolean probed = probe(storyFile);
+		supported.put(fileSystem, probed);
+		return probed;
+	}
+
+	/**
+	 * Lets <code>cp</code> make the target a copy-on-write clone of the source.
+	 *
+	 * @return whether that worked
+	 */
+	static boolean reflink(final Path source, final Path target) throws IOException
+	{
+		final Process process;
+		try
+		{
+			process = new ProcessBuilder("cp", "--reflink=always", "--", source.toString(), target.toString()).redirectErrorStream(true).start();
+		}
+		catch (IOException e)
+		{
+			// No cp here
+			return false;
+		}
+
+		try (InputStream output = process.getInputStream())
+		{
+			process.getOutputStream().close();
+			final byte[] buffer = new byte[256];
+			while (output.read(buffer) >= 0)
+			{
+				// We are only interested in the exit code
+			}
+			return process.waitFor() == 0;
+		}
+		catch (InterruptedException e)
+		{
+			process.destroy();
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while making a reflink of " + source);
+		}
+	}
+
+	/**
+	 * Makes a reflink of a temporary file next to the story file.
+	 */
+	private static boolean probe(final Path storyFile) throws IOException
+	{
+		final Path source = PipeTableFormatter.createTempFileFor(storyFile);
+		try
+		{
+			final Path target = PipeTableFormatter.createTempFileFor(storyFile);
+			try
+			{
+				Files.write(source, "reflink".getBytes(StandardCharsets.UTF_8));
+				return reflink(source, target);
+			}
+			finally
+			{
+				Files.deleteIfExists(target);
+			}
+		}
+		finally
+		{
+			Files.deleteIfExists(source);
+		}
+	}
+
+	/**
+	 * @return the device of the directory, or the directory itself where the file system does not tell
+	 */
+	private static Object fileSystemOf(final Path directory) throws IOException
+	{
+		try
+		{
+			return Files.getAttribute(directory, "unix:dev");
+		}
+		catch (UnsupportedOperationException | IllegalArgumentException e)
+		{
+			return directory;
+		}
+	}
+}
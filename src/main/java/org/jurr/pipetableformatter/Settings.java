@@ -3,35 +3,118 @@ package org.jurr.pipetableformatter;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
 import com.beust.jcommander.Parameter;
+import com.beust.jcommander.converters.IParameterSplitter;
 
 final class Settings
 {
 	public static final Settings INSTANCE = new Settings();
 
 	private static final String DEFAULT_FILE_MASK = "*.story";
-	private static final String DEFAULT_DIRECTORY = ".";
 
 	@Parameter(names = { "-h", "--help" }, description = "Show this help message", help = true)
 	private boolean help;
 
-	@Parameter(names = { "-m", "--file-mask" }, description = "File mask", required = false)
-	private String fileMask = DEFAULT_FILE_MASK;
+	@Parameter(names = { "-m", "--file-mask" }, description = "File mask; can be given more than once", required = false, splitter = NoSplitter.class)
+	private List<String> fileMasks = new ArrayList<>(Collections.singletonList(DEFAULT_FILE_MASK));
+
+	@Parameter(names = { "-x", "--exclude" }, description = "Skip the files and directories matching this mask; can be given more than once", required = false, splitter = NoSplitter.class)
+	private List<String> excludes = new ArrayList<>();
+
+	@Parameter(names = { "--no-ignore" }, description = "Do not skip the files and directories that .gitignore and .pipetableformatterignore files ignore", required = false)
+	private boolean noIgnore = false;
 
 	@Parameter(names = { "-w", "--watch" }, description = "Watch for changes in given directories, and format on file change", required = false)
 	private boolean watch = false;
 
-	@Parameter(description = "Files to parse (or directories to traverse)", required = true)
+	@Parameter(names = { "--watch-polling" }, description = "While watching, scan the directories for changes instead of relying on change notifications of the file system", required = false)
+	private boolean watchPolling = false;
+
+	@Parameter(names = { "--poll-interval" }, description = "While watching with --watch-polling, the number of milliseconds between two scans", required = false)
+	private int pollInterval = Watcher.DEFAULT_POLL_INTERVAL_MILLIS;
+
+	@Parameter(names = { "--debounce" }, description = "While watching, the number of milliseconds a file should not change before it is formatted", required = false)
+	private int debounce = Watcher.DEFAULT_DEBOUNCE_MILLIS;
+
+	@Parameter(names = { "--mmap-threshold" }, description = "Files of at least this many bytes are memory mapped instead of read into the heap", required = false)
+	private long memoryMapThreshold = PipeTableFormatter.DEFAULT_MEMORY_MAP_THRESHOLD;
+
+	@Parameter(names = { "--streaming-threshold" }, description = "Tables of at least this many bytes are formatted one row at a time, in two passes, instead of being held in the heap as a whole", required = false)
+	private int streamingThreshold = PipeTableFormatter.DEFAULT_STREAMING_THRESHOLD;
+
+	@Parameter(names = { "--parallel-tables-threshold" }, description = "In files of at least this many bytes, the tables are formatted concurrently", required = false)
+	private long parallelTablesThreshold = PipeTableFormatter.DEFAULT_PARALLEL_TABLES_THRESHOLD;
+
+	@Parameter(names = { "-t", "--threads" }, description = "Number of threads that format files", required = false)
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	@Parameter(names = { "--virtual-threads" }, description = "Process this many files at the same time on virtual threads (needs Java 21 or newer); useful on network file systems. The formatting itself is still limited to --threads", required = false)
+	private int virtualThreads = 0;
+
+	@Parameter(names = { "--write-strategy" }, description = "How files are written: to a temporary file that replaces the file (rename), over the file itself (in-place), or to a copy-on-write clone of the file that replaces the file (reflink)", required = false)
+	private String writeStrategy = "rename";
+
+	@Parameter(names = { "--fsync" }, description = "Sync the written files, and the directories they are in, to disk", required = false)
+	private boolean fsync = false;
+
+	@Parameter(names = { "--check" }, description = "Do not write anything, only list the files that are not formatted; exits with code " + Main.EXIT_NOT_FORMATTED + " when there are any", required = false)
+	private boolean check = false;
+
+	@Parameter(names = { "--fail-fast" }, description = "With --check, stop at the first file that is not formatted", required = false)
+	private boolean failFast = false;
+
+	@Parameter(names = { "--git-staged" }, description = "Only format the files that have changes staged in git", required = false)
+	private boolean gitStaged = false;
+
+	@Parameter(names = { "--git-changed-since" }, description = "Only format the files that git says differ from this commit, and the untracked files", required = false)
+	private String gitChangedSince;
+
+	@Parameter(names = { "--filter" }, description = "Format what is read from stdin, and write it to stdout, instead of formatting files", required = false)
+	private boolean filter = false;
+
+	@Parameter(names = { "--filter-batch" }, description = "With --filter, read many documents: each followed by a NUL byte (nul), or preceded by its length as a 4 byte big endian integer (length). They are written in the same way", required = false)
+	private String filterBatch;
+
+	@Parameter(names = { "--daemon" }, description = "Keep running in the background, and format for clients that connect (see --client)", required = false)
+	private boolean daemon = false;
+
+	@Parameter(names = { "--client" }, description = "Let the daemon (see --daemon) do the work, so we don't need to wait for the JVM to warm up. When no daemon is running, the work is done by this process", required = false)
+	private boolean client = false;
+
+	@Parameter(names = { "--daemon-file" }, description = "The file in which the daemon publishes how to connect to it", required = false)
+	private String daemonFile;
+
+	@Parameter(names = { "--daemon-idle-timeout" }, description = "Number of seconds after which an idle daemon stops", required = false)
+	private int daemonIdleTimeout = Daemon.DEFAULT_IDLE_TIMEOUT_SECONDS;
+
+	@Parameter(names = { "-c", "--cache" }, description = "Remember formatted files in this cache file, and skip them in the next run when they did not change", required = false)
+	private String cacheFile;
+
+	@Parameter(names = { "--stats" }, description = "Print what was done, and where the time went, when done (or, while watching, when stopped)", required = false)
+	private boolean stats = false;
+
+	@Parameter(names = { "--stats-json" }, description = "Write what was done, and where the time went, as JSON to this file when done (or, while watching, when stopped)", required = false)
+	private String statsJsonFile;
+
+	@Parameter(description = "Files to parse (or directories to traverse); not needed with --filter", required = false)
 	private List<String> filesOrDirectories;
 	private List<Path> filesOrDirectoriesAsPath = null;
 
-	private Settings()
+	/**
+	 * Relative paths are resolved against this directory. When <code>null</code>, the working directory of this process is used.
+	 */
+	private Path workingDirectory;
+
+	/**
+	 * Use {@link #INSTANCE} for the settings of this process. Other instances are only needed for the settings of requests to the {@link Daemon}.
+	 */
+	Settings()
 	{
 		filesOrDirectories = new ArrayList<>();
-		filesOrDirectories.add(DEFAULT_DIRECTORY);
 	}
 
 	public boolean isHelp()
@@ -39,9 +122,19 @@ final class Settings
 		return help;
 	}
 
-	public String getFileMask()
+	public List<String> getFileMasks()
 	{
-		return fileMask;
+		return fileMasks;
+	}
+
+	public List<String> getExcludes()
+	{
+		return excludes;
+	}
+
+	public boolean isIgnoreFiles()
+	{
+		return !noIgnore;
 	}
 
 	public boolean isWatch()
@@ -49,12 +142,187 @@ final class Settings
 		return watch;
 	}
 
+	public boolean isWatchPolling()
+	{
+		return watchPolling;
+	}
+
+	public int getPollInterval()
+	{
+		return pollInterval;
+	}
+
+	public int getDebounce()
+	{
+		return debounce;
+	}
+
+	public long getMemoryMapThreshold()
+	{
+		return memoryMapThreshold;
+	}
+
+	public int getStreamingThreshold()
+	{
+		return streamingThreshold;
+	}
+
+	public long getParallelTablesThreshold()
+	{
+		return parallelTablesThreshold;
+	}
+
+	public int getThreads()
+	{
+		return threads;
+	}
+
+	public int getVirtualThreads()
+	{
+		return virtualThreads;
+	}
+
+	public boolean isCheck()
+	{
+		return check;
+	}
+
+	public boolean isFailFast()
+	{
+		return failFast;
+	}
+
+	public boolean isGitStaged()
+	{
+		return gitStaged;
+	}
+
+	/**
+	 * @return the commit to compare with, or <code>null</code> when not formatting the files that changed since a commit
+	 */
+	public String getGitChangedSince()
+	{
+		return gitChangedSince;
+	}
+
+	/**
+	 * @return how files are written, or <code>null</code> when the --write-strategy value is not valid
+	 */
+	public WriteStrategy getWriteStrategy()
+	{
+		switch (writeStrategy)
+		{
+			case "rename":
+				return WriteStrategy.RENAME;
+			case "in-place":
+				return WriteStrategy.IN_PLACE;
+			case "reflink":
+				return WriteStrategy.REFLINK;
+			default:
+				return null;
+		}
+	}
+
+	public boolean isFsync()
+	{
+		return fsync;
+	}
+
+	public boolean isFilter()
+	{
+		return filter;
+	}
+
+	/**
+	 * @return how the documents are separated with --filter, or <code>null</code> when the --filter-batch value is not valid
+	 */
+	public StreamFilter.Framing getFilterFraming()
+	{
+		if (filterBatch == null)
+		{
+			return StreamFilter.Framing.NONE;
+		}
+		switch (filterBatch)
+		{
+			case "nul":
+				return StreamFilter.Framing.NUL;
+			case "length":
+				return StreamFilter.Framing.LENGTH;
+			default:
+				return null;
+		}
+	}
+
+	public boolean isDaemon()
+	{
+		return daemon;
+	}
+
+	public boolean isClient()
+	{
+		return client;
+	}
+
+	public Path getDaemonFile()
+	{
+		return daemonFile == null ? Daemon.getDefaultDaemonFile() : resolve(daemonFile);
+	}
+
+	public int getDaemonIdleTimeout()
+	{
+		return daemonIdleTimeout;
+	}
+
+	/**
+	 * @return the cache file, or <code>null</code> when no cache should be used
+	 */
+	public Path getCacheFile()
+	{
+		return cacheFile == null ? null : resolve(cacheFile);
+	}
+
+	public boolean isStats()
+	{
+		return stats;
+	}
+
+	/**
+	 * @return the file to write the statistics to as JSON, or <code>null</code> when they should not be written
+	 */
+	public Path getStatsJsonFile()
+	{
+		return statsJsonFile == null ? null : resolve(statsJsonFile);
+	}
+
 	public List<Path> getFilesOrDirectories()
 	{
 		if (filesOrDirectoriesAsPath == null)
 		{
-			filesOrDirectoriesAsPath = filesOrDirectories.stream().map(Paths::get).collect(Collectors.toList());
+			filesOrDirectoriesAsPath = filesOrDirectories.stream().map(this::resolve).collect(Collectors.toList());
 		}
 		return filesOrDirectoriesAsPath;
 	}
+
+	void setWorkingDirectory(final Path workingDirectory)
+	{
+		this.workingDirectory = workingDirectory;
+		filesOrDirectoriesAsPath = null;
+	}
+
+	private Path resolve(final String path)
+	{
+		return workingDirectory == null ? Paths.get(path) : workingDirectory.resolve(path);
+	}
+
+	/**
+	 * Masks may contain commas (as in <code>*.{story,md}</code>), so we don't split them; give the option more than once instead.
+	 */
+	static final class NoSplitter implements IParameterSplitter
+	{
+		@Override
+		public List<String> split(final String value)
+		{
+			return Collections.singletonList(value);
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,295 @@
+package org.jurr.pipetableformatter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Formats UTF-8 documents that are read from a stream, and writes them to another stream; for example from stdin to stdout, so we can be used as a filter by editors and git.
+ * <p>
+ * The input is streamed through a {@link TableFormatter}, so only the table that is being formatted is held in memory; not the whole document.
+ * Many documents can be formatted in one go, each separated from the next by a NUL byte, or preceded by its length. They are written in the same way, in the same order.
+ * The output is flushed after every document, so the other end of a pipe can wait for a document before sending the next one.
+ * Instances are not thread-safe.
+ */
+final class StreamFilter
+{
+	/**
+	 * How the documents in the input (and output) are separated.
+	 */
+	enum Framing
+	{
+		/**
+		 * The whole input is one document.
+		 */
+		NONE,
+
+		/**
+		 * Every document is followed by a NUL byte, as in <code>find -print0</code> or <code>xargs -0</code>. The NUL after the last document may be left out.
+		 * A NUL can not occur in a UTF-8 encoded character (other than NUL itself), so this can be streamed.
+		 */
+		NUL,
+
+		/**
+		 * Every document is preceded by its length in bytes, as a 4 byte big endian integer. A formatted document is held in memory, as its length is written before it.
+		 */
+		LENGTH
+	}
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final Framing framing;
+	private final DocumentInputStream input;
+	private final OutputStream output;
+	private final TableFormatter tableFormatter;
+	private final Writer writer;
+	private final LengthPrefixedOutputStream lengthPrefixedOutput;
+	private long documents;
+
+	/**
+	 * The streams are not closed by this class.
+	 */
+	StreamFilter(final InputStream input, final OutputStream output, final Framing framing)
+	{
+		this.framing = framing;
+		this.input = new DocumentInputStream(input, framing);
+		this.output = output;
+		lengthPrefixedOutput = framing == Framing.LENGTH ? new LengthPrefixedOutputStream() : null;
+		writer = new OutputStreamWriter(framing == Framing.LENGTH ? lengthPrefixedOutput : output, StandardCharsets.UTF_8);
+		tableFormatter = new TableFormatter(writer);
+	}
+
+	/**
+	 * Formats all documents of the input.
+	 */
+	void run() throws IOException
+	{
+		while (input.nextDocument())
+		{
+			tableFormatter.format(new InputStreamReader(input, StandardCharsets.UTF_8));
+			tableFormatter.flushTable();
+			writer.flush();
+
+			if (framing == Framing.NUL)
+			{
+				output.write(0);
+			}
+			else if (framing == Framing.LENGTH)
+			{
+				lengthPrefixedOutput.writeFramedTo(output);
+			}
+			output.flush();
+			documents++;
+		}
+	}
+
+	/**
+	 * @return the number of documents formatted so far
+	 */
+	long getDocuments()
+	{
+		return documents;
+	}
+
+	long getTablesFormatted()
+	{
+		return tableFormatter.getTablesWritten();
+	}
+
+	long getRowsFormatted()
+	{
+		return tableFormatter.getRowsWritten();
+	}
+
+	/**
+	 * Reads one document at a time from the input: it ends (as far as its readers are concerned) where the document ends. Closing it does nothing.
+	 */
+	private static final class DocumentInputStream extends InputStream
+	{
+		private final InputStream in;
+		private final Framing framing;
+		private final byte[] buffer;
+		private final byte[] singleByte;
+		private int position;
+		private int limit;
+		private boolean endOfInput;
+
+		/**
+		 * Whether the current document is over.
+		 */
+		private boolean endOfDocument = true;
+
+		/**
+		 * With {@link Framing#LENGTH}, the number of bytes of the current document that have not been read yet.
+		 */
+		private long remaining;
+
+		DocumentInputStream(final InputStream in, final Framing framing)
+		{
+			this.in = in;
+			this.framing = framing;
+			buffer = new byte[BUFFER_SIZE];
+			singleByte = new byte[1];
+		}
+
+		/**
+		 * Skips what is left of the current document, and starts the next one.
+		 *
+		 * @return <code>false</code> when there are no more documents
+		 */
+		boolean nextDocument() throws IOException
+		{
+			if (!endOfDocument)
+			{
+				final byte[] skipped = new byte[BUFFER_SIZE];
+				while (read(skipped, 0, skipped.length) >= 0)
+				{
+					// Nobody read the rest of the document
+				}
+			}
+
+			if (framing == Framing.NONE)
+			{
+				if (endOfInput)
+				{
+					return false;
+				}
+				endOfDocument = false;
+				return true;
+			}
+
+			if (!fill())
+			{
+				return false;
+			}
+			endOfDocument = false;
+
+			if (framing == Framing.LENGTH)
+			{
+				int length = 0;
+				for (int i = 0; i < Integer.BYTES; i++)
+				{
+					if (!fill())
+					{
+						throw new EOFException("The input ends in the length of a document");
+					}
+					length = (length << Byte.SIZE) | (buffer[position++] & 0xFF);
+				}
+				if (length < 0)
+				{
+					throw new IOException("The length of a document can not be negative, but is " + length);
+				}
+				remaining = length;
+				endOfDocument = remaining == 0;
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			return read(singleByte, 0, 1) < 0 ? -1 : singleByte[0] & 0xFF;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException
+		{
+			if (len == 0)
+			{
+				return 0;
+			}
+			if (endOfDocument)
+			{
+				return -1;
+			}
+			if (!fill())
+			{
+				endOfDocument = true;
+				if (framing == Framing.LENGTH)
+				{
+					throw new EOFException("The input ends before the end of a document, " + remaining + " bytes are missing");
+				}
+				return -1;
+			}
+
+			int count = Math.min(len, limit - position);
+			if (framing == Framing.NUL)
+			{
+				for (int i = 0; i < count; i++)
+				{
+					if (buffer[position + i] == 0)
+					{
+						count = i;
+						endOfDocument = true;
+						break;
+					}
+				}
+			}
+			else if (framing == Framing.LENGTH)
+			{
+				count = (int) Math.min(count, remaining);
+				remaining -= count;
+				endOfDocument = remaining == 0;
+			}
+
+			System.arraycopy(buffer, position, b, off, count);
+			position += count;
+			if (endOfDocument && framing == Framing.NUL)
+			{
+				// Skip the NUL
+				position++;
+			}
+			return count == 0 && endOfDocument ? -1 : count;
+		}
+
+		@Override
+		public void close()
+		{
+			// The input is closed by whoever opened it
+		}
+
+		/**
+		 * Makes sure there are bytes in the buffer, unless the input has ended.
+		 *
+		 * @return <code>false</code> when the input has ended
+		 */
+		private boolean fill() throws IOException
+		{
+			while (position == limit && !endOfInput)
+			{
+				final int read = in.read(buffer, 0, buffer.length);
+				if (read < 0)
+				{
+					endOfInput = true;
+				}
+				else
+				{
+					position = 0;
+					limit = read;
+				}
+			}
+			return position < limit;
+		}
+	}
+
+	/**
+	 * Collects a formatted document, so it can be written preceded by its length.
+	 */
+	private static final class LengthPrefixedOutputStream extends ByteArrayOutputStream
+	{
+		void writeFramedTo(final OutputStream out) throws IOException
+		{
+			final DataOutputStream dataOut = new DataOutputStream(out);
+			dataOut.writeInt(size());
+			dataOut.write(buf, 0, count);
+			reset();
+		}
+	}
+}
@@ -1,24 +1,29 @@
 package org.jurr.pipetableformatter;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.Reader;
-import java.util.ArrayList;
+import java.io.Writer;
+import java.nio.CharBuffer;
 import java.util.Arrays;
-import java.util.List;
+import java.util.BitSet;
 
 public class TableFormatter implements AutoCloseable
 {
+	/**
+	 * The version of the formatting rules. Bump this whenever a change to the formatting rules changes the output, so cached results (see {@link FormatCache}) are invalidated.
+	 */
+	static final int RULES_VERSION = 1;
+
 	/**
 	 * The character that is the column separator for tables
 	 */
-	private static final char COLUMN_SEPARATOR = '|';
+	static final char COLUMN_SEPARATOR = '|';
 
 	/**
 	 * The line comment
 	 */
-	private static final String LINE_COMMENT = "!--";
+	static final String LINE_COMMENT = "!--";
 
 	/**
 	 * The table comment (without the leading {@value #COLUMN_SEPARATOR})
@@ -36,75 +41,319 @@ public class TableFormatter implements AutoCloseable
 	private static final String TABLE_COMMENT_PADDING = " ";
 
 	/**
-	 * A list of the maximum cell content length seen per column index.
+	 * The initial capacity of the buffers that hold the current table.
+	 */
+	private static final int INITIAL_CAPACITY = 256;
+
+	/**
+	 * The initial number of columns we reserve room for.
+	 */
+	private static final int INITIAL_COLUMN_CAPACITY = 16;
+
+	/**
+	 * A run of spaces, copied into the row buffer to pad the cells.
+	 */
+	private static final char[] SPACES = new char[64];
+
+	/**
+	 * The default number of characters read from the input at once.
+	 */
+	private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	private static final char[] LINE_SEPARATOR = System.lineSeparator().toCharArray();
+
+	static
+	{
+		Arrays.fill(SPACES, ' ');
+	}
+
+	/**
+	 * The maximum cell width seen per column index (including {@value #CELL_PADDING} left and right).
+	 * Only the first {@link #columnCount} entries are in use.
+	 */
+	private int[] columnWidth;
+	private int columnCount;
+
+	/**
+	 * The columns that contain at least one non-empty cell. Only these columns are printed.
+	 */
+	private BitSet nonEmptyColumns;
+
+	/**
+	 * The characters of all lines of the current table, one after the other.
+	 * Cells point into this buffer, so no string is created per cell.
+	 */
+	private char[] tableText;
+	private int tableTextLength;
+
+	/**
+	 * Per cell, two entries: the start and end (exclusive) of the trimmed cell content in {@link #tableText}.
+	 * For a table comment, this is the content after the {@value #TABLE_COMMENT}.
+	 */
+	private int[] cellSpans;
+	private int cellCount;
+
+	/**
+	 * Per row, the index of its first cell. The entry after the last row is the total number of cells.
+	 */
+	private int[] rowStarts;
+	private int rowCount;
+
+	/**
+	 * The rows that start with a table comment.
+	 */
+	private BitSet tableCommentRows;
+
+	/**
+	 * The buffer in which a table row is rendered before it is written.
+	 * Every row of a formatted table has the same length, so this is sized to exactly one row (including the line separator).
+	 * That way, we can hand the whole array to {@link PrintStream#print(char[])}, which (unlike the other methods of PrintStream) does not need to create a String.
+	 */
+	private char[] rowBuffer;
+	private int rowLength;
+
+	/**
+	 * The buffer that input is read into. Lines are processed straight from this buffer.
 	 */
-	private List<Integer> columnWidth;
+	private char[] readBuffer;
 
 	/**
-	 * The content of the table (trimmed and with {@value #CELL_PADDING} left and right).
+	 * Where we should output to.
 	 */
-	private List<List<String>> rows;
+	private final Appendable output;
 
 	/**
-	 * The PrintStream we should output to.
+	 * The number of tables and table rows written so far.
 	 */
-	private PrintStream ps;
+	private long tablesWritten;
+	private long rowsWritten;
 
 	public TableFormatter(final PrintStream ps)
 	{
-		rows = new ArrayList<>();
-		columnWidth = new ArrayList<>();
-		this.ps = ps;
+		this((Appendable) ps);
+	}
+
+	/**
+	 * @param output where the formatted text is written to. When this is a {@link Writer}, a {@link StringBuilder} or a {@link PrintStream}, the text is written without intermediate copies.
+	 *            The output is not flushed or closed by this class.
+	 */
+	public TableFormatter(final Appendable output)
+	{
+		this(output, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param output where the formatted text is written to. When this is a {@link Writer}, a {@link StringBuilder} or a {@link PrintStream}, the text is written without intermediate copies.
+	 *            The output is not flushed or closed by this class.
+	 * @param bufferSize the number of characters that are read from the input at once. The buffer grows when a single line does not fit.
+	 */
+	public TableFormatter(final Appendable output, final int bufferSize)
+	{
+		if (bufferSize <= 0)
+		{
+			throw new IllegalArgumentException("Buffer size must be positive, but is " + bufferSize);
+		}
+
+		columnWidth = new int[INITIAL_COLUMN_CAPACITY];
+		nonEmptyColumns = new BitSet();
+		tableText = new char[INITIAL_CAPACITY * 16];
+		cellSpans = new int[INITIAL_CAPACITY * 2];
+		rowStarts = new int[INITIAL_CAPACITY + 1];
+		tableCommentRows = new BitSet();
+		rowBuffer = new char[0];
+		readBuffer = new char[bufferSize];
+		this.output = output;
 	}
 
+	/**
+	 * Formats all lines of the input. Lines may be terminated by <code>\n</code>, <code>\r</code> or <code>\r\n</code> (just like {@link java.io.BufferedReader#readLine()}).
+	 * Every line that is output is terminated by the system line separator. The input is closed afterwards.
+	 */
 	public void format(final Reader input) throws IOException
 	{
-		try (BufferedReader br = new BufferedReader(input))
+		try (Reader reader = input)
+		{
+			int start = 0;
+			int limit = 0;
+			boolean skipLF = false;
+
+			while (true)
+			{
+				if (start > 0)
+				{
+					// Move the partial line we have left to the front, to make room
+					System.arraycopy(readBuffer, start, readBuffer, 0, limit - start);
+					limit -= start;
+					start = 0;
+				}
+				else if (limit == readBuffer.length)
+				{
+					// A single line that does not fit the buffer
+					readBuffer = Arrays.copyOf(readBuffer, readBuffer.length * 2);
+				}
+
+				final int read = reader.read(readBuffer, limit, readBuffer.length - limit);
+				if (read < 0)
+				{
+					break;
+				}
+
+				for (int i = limit; i < limit + read; i++)
+				{
+					final char c = readBuffer[i];
+					if (skipLF)
+					{
+						skipLF = false;
+						if (c == '\n')
+						{
+							start = i + 1;
+							continue;
+						}
+					}
+
+					if (c == '\n' || c == '\r')
+					{
+						readLine(readBuffer, start, i);
+						start = i + 1;
+						skipLF = c == '\r';
+					}
+				}
+				limit += read;
+			}
+
+			if (start < limit)
+			{
+				readLine(readBuffer, start, limit);
+			}
+		}
+	}
+
+	/**
+	 * Formats the characters from <code>start</code> to <code>end</code> (exclusive) of the input, in the same way as {@link #format(Reader)}.
+	 */
+	public void format(final CharSequence input, final int start, final int end) throws IOException
+	{
+		format(new CharSequenceReader(input, start, end));
+	}
+
+	/**
+	 * Formats the characters from <code>start</code> to <code>end</code> (exclusive) of the array, in the same way as {@link #format(Reader)}.
+	 * The lines are taken from the array as they are, without copying them into the read buffer first.
+	 */
+	void format(final char[] input, final int start, final int end) throws IOException
+	{
+		int lineStart = start;
+		for (int i = start; i < end; i++)
 		{
-			String line = null;
-			while ((line = br.readLine()) != null)
+			final char c = input[i];
+			if (c == '\n' || c == '\r')
 			{
-				readLine(line);
+				readLine(input, lineStart, i);
+				if (c == '\r' && i + 1 < end && input[i + 1] == '\n')
+				{
+					i++;
+				}
+				lineStart = i + 1;
 			}
 		}
+
+		if (lineStart < end)
+		{
+			readLine(input, lineStart, end);
+		}
 	}
 
+	/**
+	 * Formats the lines of the input, split on the system line separator. Trailing empty lines are ignored (just like {@link String#split(String)} does).
+	 */
 	public void format(final String input)
 	{
-		final String[] lines = input.split(System.lineSeparator());
-		Arrays.stream(lines).forEach(this::readLine);
+		try
+		{
+			if (input.isEmpty())
+			{
+				readLine(readBuffer, 0, 0);
+				return;
+			}
+
+			final String lineSeparator = System.lineSeparator();
+			int end = input.length();
+			while (input.startsWith(lineSeparator, end - lineSeparator.length()))
+			{
+				end -= lineSeparator.length();
+			}
+
+			int lineStart = 0;
+			while (lineStart < end)
+			{
+				int lineEnd = input.indexOf(lineSeparator, lineStart);
+				if (lineEnd < 0 || lineEnd > end)
+				{
+					lineEnd = end;
+				}
+
+				final int length = lineEnd - lineStart;
+				if (length > readBuffer.length)
+				{
+					readBuffer = new char[Math.max(length, readBuffer.length * 2)];
+				}
+				input.getChars(lineStart, lineEnd, readBuffer, 0);
+				readLine(readBuffer, 0, length);
+
+				lineStart = lineEnd + lineSeparator.length();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new PipeTableFormatterException("Error while writing formatted output", e);
+		}
 	}
 
-	private void readLine(final String line)
+	private void readLine(final char[] line, final int start, final int end) throws IOException
 	{
-		if (lineIsATableLine(line))
+		if (lineIsATableLine(line, start, end))
 		{
-			addTableRow(line);
+			addTableRow(line, start, end);
 		}
 		else
 		{
 			dumpTable();
-			ps.println(line);
+			write(line, start, end - start);
+			write(LINE_SEPARATOR, 0, LINE_SEPARATOR.length);
+		}
+	}
+
+	private static boolean lineIsATableLine(final char[] line, final int start, final int end)
+	{
+		final int firstPipe = indexOf(line, COLUMN_SEPARATOR, start, end);
+		if (firstPipe < 0)
+		{
+			// Most lines are not table lines; don't bother looking any further
+			return false;
 		}
+
+		final int lastPipe = lastIndexOf(line, COLUMN_SEPARATOR, start, end);
+		final int comment = indexOf(line, LINE_COMMENT, start, end);
+		return isTableLine(firstPipe, lastPipe, comment);
 	}
 
-	private boolean lineIsATableLine(final String line)
+	/**
+	 * Decides whether a line is a table line, given the positions of the first and last {@value #COLUMN_SEPARATOR}, and of the first {@value #LINE_COMMENT} in the line (or -1 if not present).
+	 */
+	static boolean isTableLine(final int firstPipe, final int lastPipe, final int comment)
 	{
-		int firstPipe = line.indexOf(COLUMN_SEPARATOR);
 		if (firstPipe < 0)
 		{
 			// No pipes found in line
 			return false;
 		}
 
-		int lastPipe = line.lastIndexOf(COLUMN_SEPARATOR);
 		if (firstPipe == lastPipe)
 		{
 			// Only one pipe found in line
 			return false;
 		}
 
-		int comment = line.indexOf(LINE_COMMENT);
 		if (comment < 0)
 		{
 			// No line comment in line
@@ -120,142 +369,385 @@ public class TableFormatter implements AutoCloseable
 
 	@Override
 	public void close()
+	{
+		try
+		{
+			flushTable();
+		}
+		catch (IOException e)
+		{
+			throw new PipeTableFormatterException("Error while writing formatted output", e);
+		}
+	}
+
+	/**
+	 * Writes the table that is currently being read (if any). After this, the formatter can be used for new input.
+	 */
+	void flushTable() throws IOException
 	{
 		dumpTable();
 	}
 
-	private void addTableRow(final String line)
+	/**
+	 * First pass of formatting a table one row at a time, for tables that are too large to keep in memory: call this for every line of the table, to find the column widths.
+	 * Then call {@link #writeTableRow(char[], int, int)} for every line of the table, and finally {@link #endTableRows()}.
+	 * Only one row is kept in memory at a time.
+	 *
+	 * @param line a table line, without line terminator
+	 */
+	void measureTableRow(final char[] line, final int start, final int end)
 	{
-		final List<String> cells = splitTableLineIntoCells(line);
-		final List<String> row = new ArrayList<>(cells.size());
+		addTableRow(line, start, end);
+		clearRows();
+	}
 
-		for (int i = 0; i < cells.size(); i++)
+	/**
+	 * Second pass of formatting a table one row at a time; see {@link #measureTableRow(char[], int, int)}. Writes the formatted line.
+	 */
+	void writeTableRow(final char[] line, final int start, final int end) throws IOException
+	{
+		addTableRow(line, start, end);
+		if (!nonEmptyColumns.isEmpty())
 		{
-			final String cellContent = formatCellContent(cells.get(i), i);
-			row.add(cellContent);
+			prepareRowBuffer();
+			dumpTableRow(0);
+			rowsWritten++;
+		}
+		clearRows();
+	}
 
-			updateColumnWidthForCell(cellContent, i);
+	/**
+	 * Ends a table that was formatted one row at a time; see {@link #measureTableRow(char[], int, int)}. After this, the formatter can be used for new input.
+	 */
+	void endTableRows()
+	{
+		if (!nonEmptyColumns.isEmpty())
+		{
+			tablesWritten++;
 		}
+		clearColumns();
+	}
+
+	long getTablesWritten()
+	{
+		return tablesWritten;
+	}
 
-		rows.add(row);
+	long getRowsWritten()
+	{
+		return rowsWritten;
 	}
 
-	private List<String> splitTableLineIntoCells(final String line)
+	private void addTableRow(final char[] line, final int start, final int end)
 	{
-		final int firstPipe = line.indexOf(COLUMN_SEPARATOR);
-		final int lastPipe = line.lastIndexOf(COLUMN_SEPARATOR);
-		final List<String> result = new ArrayList<>();
+		final int lineStart = appendToTableText(line, start, end);
+		final int lineEnd = tableTextLength;
+		final int firstPipe = indexOf(tableText, COLUMN_SEPARATOR, lineStart, lineEnd);
+		final int lastPipe = lastIndexOf(tableText, COLUMN_SEPARATOR, lineStart, lineEnd);
+
+		ensureRowCapacity();
+		rowStarts[rowCount] = cellCount;
 
-		final String partBeforeFirstPipe = line.substring(0, firstPipe);
-		if (!partBeforeFirstPipe.trim().equals(""))
+		if (!isBlank(lineStart, firstPipe))
 		{
-			result.add(partBeforeFirstPipe);
+			addTableCell(lineStart, firstPipe);
 		}
 
 		int currPos = firstPipe;
 		while (currPos < lastPipe)
 		{
-			int nextPos = line.indexOf(COLUMN_SEPARATOR, currPos + 1);
-			final String cellContent = line.substring(currPos + 1, nextPos);
-			result.add(cellContent);
+			final int nextPos = indexOf(tableText, COLUMN_SEPARATOR, currPos + 1, lastPipe + 1);
+			addTableCell(currPos + 1, nextPos);
 			currPos = nextPos;
 		}
 
-		final String partAfterLastPipe = line.substring(lastPipe + 1);
-		if (!partAfterLastPipe.trim().equals(""))
+		if (!isBlank(lastPipe + 1, lineEnd))
 		{
-			result.add(partAfterLastPipe);
+			addTableCell(lastPipe + 1, lineEnd);
 		}
 
-		return result;
+		rowCount++;
+		rowStarts[rowCount] = cellCount;
 	}
 
-	private void updateColumnWidthForCell(final String cell, final int columnIndex)
+	private int appendToTableText(final char[] line, final int start, final int end)
 	{
-		if (columnWidth.size() <= columnIndex)
+		final int lineStart = tableTextLength;
+		final int requiredCapacity = lineStart + end - start;
+		if (requiredCapacity > tableText.length)
 		{
-			columnWidth.add(cell.length());
+			tableText = Arrays.copyOf(tableText, Math.max(requiredCapacity, tableText.length * 2));
 		}
-		else if (columnWidth.get(columnIndex) < cell.length())
+		System.arraycopy(line, start, tableText, lineStart, end - start);
+		tableTextLength = requiredCapacity;
+		return lineStart;
+	}
+
+	private void ensureRowCapacity()
+	{
+		// One extra entry for the end of the row we are about to add
+		if (rowCount + 2 > rowStarts.length)
 		{
-			columnWidth.remove(columnIndex);
-			columnWidth.add(columnIndex, cell.length());
+			rowStarts = Arrays.copyOf(rowStarts, rowStarts.length * 2);
 		}
 	}
 
 	/**
-	 * This will return the cell content with {@value #CELL_PADDING} before and after.
+	 * Records the cell content between <code>start</code> and <code>end</code>, trimmed.
 	 * Table comments are supported (and will not trigger a space before the content).
 	 */
-	private String formatCellContent(final String content, final int columnIndex)
+	private void addTableCell(final int start, final int end)
+	{
+		final int columnIndex = cellCount - rowStarts[rowCount];
+		int contentStart = start;
+		int extraWidth = 0;
+
+		if (columnIndex == 0 && startsWith(TABLE_COMMENT, start, end))
+		{
+			tableCommentRows.set(rowCount);
+			contentStart += TABLE_COMMENT.length();
+			extraWidth = TABLE_COMMENT.length() + TABLE_COMMENT_PADDING.length() - CELL_PADDING.length();
+		}
+
+		while (contentStart < end && tableText[contentStart] <= ' ')
+		{
+			contentStart++;
+		}
+		int contentEnd = end;
+		while (contentEnd > contentStart && tableText[contentEnd - 1] <= ' ')
+		{
+			contentEnd--;
+		}
+
+		if (cellCount * 2 + 2 > cellSpans.length)
+		{
+			cellSpans = Arrays.copyOf(cellSpans, cellSpans.length * 2);
+		}
+		cellSpans[cellCount * 2] = contentStart;
+		cellSpans[cellCount * 2 + 1] = contentEnd;
+		cellCount++;
+
+		updateColumnWidthForCell(CELL_PADDING.length() + extraWidth + contentEnd - contentStart + CELL_PADDING.length(), columnIndex);
+	}
+
+	private boolean isBlank(final int start, final int end)
 	{
-		if (content.startsWith(TABLE_COMMENT) && columnIndex == 0)
+		for (int i = start; i < end; i++)
+		{
+			if (tableText[i] > ' ')
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean startsWith(final String prefix, final int start, final int end)
+	{
+		if (end - start < prefix.length())
+		{
+			return false;
+		}
+		for (int i = 0; i < prefix.length(); i++)
 		{
-			return TABLE_COMMENT + TABLE_COMMENT_PADDING + content.substring(TABLE_COMMENT.length()).trim() + CELL_PADDING;
+			if (tableText[start + i] != prefix.charAt(i))
+			{
+				return false;
+			}
 		}
+		return true;
+	}
 
-		final String trimmedContent = content.trim();
-		if (trimmedContent.startsWith(TABLE_COMMENT) && CELL_PADDING.equals(""))
+	private static int indexOf(final char[] chars, final char c, final int start, final int end)
+	{
+		for (int i = start; i < end; i++)
 		{
-			return CELL_PADDING + " " + trimmedContent + CELL_PADDING;
+			if (chars[i] == c)
+			{
+				return i;
+			}
 		}
+		return -1;
+	}
 
-		return CELL_PADDING + trimmedContent + CELL_PADDING;
+	private static int lastIndexOf(final char[] chars, final char c, final int start, final int end)
+	{
+		for (int i = end - 1; i >= start; i--)
+		{
+			if (chars[i] == c)
+			{
+				return i;
+			}
+		}
+		return -1;
 	}
 
-	private void dumpTable()
+	private static int indexOf(final char[] chars, final String str, final int start, final int end)
 	{
-		filterEmptyColumns();
-		rows.forEach(this::dumpTableRow);
-		rows.clear();
-		columnWidth.clear();
+		final int last = end - str.length();
+		for (int i = start; i <= last; i++)
+		{
+			int j = 0;
+			while (j < str.length() && chars[i + j] == str.charAt(j))
+			{
+				j++;
+			}
+			if (j == str.length())
+			{
+				return i;
+			}
+		}
+		return -1;
 	}
 
-	private void filterEmptyColumns()
+	private void updateColumnWidthForCell(final int cellWidth, final int columnIndex)
 	{
+		if (columnIndex >= columnCount)
+		{
+			if (columnIndex >= columnWidth.length)
+			{
+				columnWidth = Arrays.copyOf(columnWidth, Math.max(columnIndex + 1, columnWidth.length * 2));
+			}
+			columnCount = columnIndex + 1;
+		}
+
+		if (columnWidth[columnIndex] < cellWidth)
+		{
+			columnWidth[columnIndex] = cellWidth;
+		}
+
 		final int widthOfEmptyCell = CELL_PADDING.length() * 2; // Cell padding is applied both left and right
-		for (int i = columnWidth.size() - 1; i >= 0; i--)
+		if (cellWidth > widthOfEmptyCell)
+		{
+			nonEmptyColumns.set(columnIndex);
+		}
+	}
+
+	/**
+	 * Columns that only contain empty cells are not printed. When that leaves no columns at all, the table is not printed.
+	 */
+	private void dumpTable() throws IOException
+	{
+		if (!nonEmptyColumns.isEmpty())
 		{
-			int width = columnWidth.get(i);
-			if (width == widthOfEmptyCell)
+			prepareRowBuffer();
+			for (int row = 0; row < rowCount; row++)
 			{
-				columnWidth.remove(i);
-				for (List<String> row : rows)
-				{
-					if (row.size() > i)
-					{
-						row.remove(i);
-					}
-				}
+				dumpTableRow(row);
 			}
+			tablesWritten++;
+			rowsWritten += rowCount;
+		}
+
+		clearRows();
+		clearColumns();
+	}
+
+	private void clearRows()
+	{
+		rowCount = 0;
+		cellCount = 0;
+		tableTextLength = 0;
+		tableCommentRows.clear();
+	}
+
+	private void clearColumns()
+	{
+		Arrays.fill(columnWidth, 0, columnCount, 0);
+		columnCount = 0;
+		nonEmptyColumns.clear();
+	}
+
+	private void prepareRowBuffer()
+	{
+		int length = 1 + LINE_SEPARATOR.length; // The leading column separator, and the line separator
+		for (int i = nonEmptyColumns.nextSetBit(0); i >= 0; i = nonEmptyColumns.nextSetBit(i + 1))
+		{
+			length += columnWidth[i] + 1; // The cell, and its trailing column separator
+		}
+
+		if (rowBuffer.length != length)
+		{
+			rowBuffer = new char[length];
 		}
+	}
 
-		if (columnWidth.isEmpty())
+	private void dumpTableRow(final int row) throws IOException
+	{
+		rowLength = 0;
+		appendToRow(COLUMN_SEPARATOR);
+		for (int i = nonEmptyColumns.nextSetBit(0); i >= 0; i = nonEmptyColumns.nextSetBit(i + 1))
 		{
-			rows.clear();
+			appendTableCell(row, i);
+			appendToRow(COLUMN_SEPARATOR);
 		}
+		appendToRow(LINE_SEPARATOR, 0, LINE_SEPARATOR.length);
+
+		write(rowBuffer, 0, rowLength);
 	}
 
-	private void dumpTableRow(final List<String> row)
+	private void appendTableCell(final int row, final int columnIndex)
 	{
-		ps.print(COLUMN_SEPARATOR);
-		for (int i = 0; i < columnWidth.size(); i++)
+		final int cellStart = rowLength;
+		final int cell = rowStarts[row] + columnIndex;
+
+		if (cell < rowStarts[row + 1])
+		{
+			if (columnIndex == 0 && tableCommentRows.get(row))
+			{
+				appendToRow(TABLE_COMMENT);
+				appendToRow(TABLE_COMMENT_PADDING);
+			}
+			else
+			{
+				appendToRow(CELL_PADDING);
+			}
+
+			final int contentStart = cellSpans[cell * 2];
+			appendToRow(tableText, contentStart, cellSpans[cell * 2 + 1] - contentStart);
+			appendToRow(CELL_PADDING);
+		}
+
+		for (int padding = columnWidth[columnIndex] - (rowLength - cellStart); padding > 0; padding -= SPACES.length)
 		{
-			dumpTableCell(row, i);
-			ps.print(COLUMN_SEPARATOR);
+			appendToRow(SPACES, 0, Math.min(padding, SPACES.length));
 		}
-		ps.println();
 	}
 
-	private void dumpTableCell(final List<String> row, final int columnIndex)
+	private void appendToRow(final char c)
+	{
+		rowBuffer[rowLength++] = c;
+	}
+
+	private void appendToRow(final String str)
 	{
-		final String cellContent = row.size() <= columnIndex ? "" : row.get(columnIndex);
+		str.getChars(0, str.length(), rowBuffer, rowLength);
+		rowLength += str.length();
+	}
 
-		ps.print(cellContent);
+	private void appendToRow(final char[] chars, final int offset, final int length)
+	{
+		System.arraycopy(chars, offset, rowBuffer, rowLength, length);
+		rowLength += length;
+	}
 
-		for (int x = columnWidth.get(columnIndex) - cellContent.length(); x > 0; x--)
+	private void write(final char[] chars, final int offset, final int length) throws IOException
+	{
+		if (output instanceof Writer)
+		{
+			((Writer) output).write(chars, offset, length);
+		}
+		else if (output instanceof StringBuilder)
+		{
+			((StringBuilder) output).append(chars, offset, length);
+		}
+		else if (output instanceof PrintStream && offset == 0 && length == chars.length)
+		{
+			((PrintStream) output).print(chars);
+		}
+		else
 		{
-			ps.print(' ');
+			output.append(CharBuffer.wrap(chars, offset, length));
 		}
 	}
-}
\ No newline at end of file
+}
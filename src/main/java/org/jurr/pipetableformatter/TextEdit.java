@@ -0,0 +1,60 @@
+package org.jurr.pipetableformatter;
+
+/**
+ * Replaces <code>length</code> characters at <code>offset</code> in a text with the replacement.
+ */
+public final class TextEdit
+{
+	private final int offset;
+	private final int length;
+	private final String replacement;
+
+	public TextEdit(final int offset, final int length, final String replacement)
+	{
+		if (offset < 0 || length < 0)
+		{
+			throw new IllegalArgumentException("Offset and length can not be negative, but are " + offset + " and " + length);
+		}
+		this.offset = offset;
+		this.length = length;
+		this.replacement = replacement;
+	}
+
+	public int getOffset()
+	{
+		return offset;
+	}
+
+	public int getLength()
+	{
+		return length;
+	}
+
+	public String getReplacement()
+	{
+		return replacement;
+	}
+
+	@Override
+	public boolean equals(final Object obj)
+	{
+		if (!(obj instanceof TextEdit))
+		{
+			return false;
+		}
+		final TextEdit other = (TextEdit) obj;
+		return offset == other.offset && length == other.length && replacement.equals(other.replacement);
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return (31 * offset + length) * 31 + replacement.hashCode();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "[" + offset + ", " + (offset + length) + ") -> \"" + replacement + "\"";
+	}
+}
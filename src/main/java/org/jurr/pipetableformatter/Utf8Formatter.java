@@ -0,0 +1,716 @@
+package org.jurr.pipetableformatter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Formats the tables in UTF-8 encoded text, without decoding the lines that are not part of a table.
+ * <p>
+ * In UTF-8, the bytes of the ASCII characters we look for (the column separator, the line comment and the line terminators) never occur inside the encoding of another character.
+ * So we can find the table lines by looking at the bytes, using the same rules as {@link TableFormatter}. Only those lines are decoded and formatted; all other lines are copied as they are.
+ * <p>
+ * The output is the same as decoding the input, formatting it with {@link TableFormatter#format(java.io.Reader)} and encoding the result again.
+ * The only exception is malformed UTF-8 outside of tables: that is copied as-is, instead of being replaced.
+ * <p>
+ * Tables are normally decoded and formatted as a whole. Tables that are larger than the streaming threshold are formatted in two passes over their bytes instead:
+ * the first pass only finds the column widths, the second pass formats and writes the rows. Only one row is kept in memory at a time, so the heap we need does not depend on the size of the table.
+ * <p>
+ * Instances are not thread-safe, but can be reused.
+ */
+final class Utf8Formatter
+{
+	private static final byte COLUMN_SEPARATOR = (byte) TableFormatter.COLUMN_SEPARATOR;
+	private static final byte[] LINE_COMMENT = TableFormatter.LINE_COMMENT.getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+	/**
+	 * The size of the chunks in which we copy from buffers that are not backed by an array.
+	 */
+	private static final int TRANSFER_BUFFER_SIZE = 8192;
+
+	/**
+	 * The default size (in bytes) from which on a table is formatted in two passes; see {@link #setStreamingThreshold(int)}.
+	 */
+	static final int DEFAULT_STREAMING_THRESHOLD = 4 * 1024 * 1024;
+
+	/**
+	 * When formatting a table in two passes, the formatted rows are encoded and written once they add up to this many characters.
+	 */
+	private static final int STREAMING_CHUNK_SIZE = 64 * 1024;
+
+	/**
+	 * When formatting tables in parallel, at most this many tables per thread of the pool are formatted ahead of the table that is written.
+	 */
+	private static final int TABLES_AHEAD_PER_THREAD = 4;
+
+	private final CharsetDecoder decoder;
+	private final CharsetEncoder encoder;
+	private final TableOutput tableOutput;
+	private final TableFormatter tableFormatter;
+
+	private CharBuffer decodedTable;
+	private ByteBuffer encodedTable;
+
+	/**
+	 * Wraps the characters that are encoded by {@link #encode(char[], int)}, for as long as they are in the same array.
+	 */
+	private CharBuffer charsToEncode;
+	private byte[] transferBuffer;
+	private List<LineRange> changedTables;
+	private int streamingThreshold = DEFAULT_STREAMING_THRESHOLD;
+	private FormatterPool pool;
+	private long parallelThreshold;
+
+	/**
+	 * The tables and rows that were formatted for us, by {@link #formatInParallel(ByteBuffer, OutputStream)}.
+	 */
+	private long forkedTables;
+	private long forkedRows;
+
+	/**
+	 * Set by {@link #scanLine(ByteBuffer, int, int)}.
+	 */
+	private boolean scannedTableLine;
+
+	Utf8Formatter()
+	{
+		decoder = StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		encoder = StandardCharsets.UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+		tableOutput = new TableOutput();
+		tableFormatter = new TableFormatter(tableOutput);
+		decodedTable = CharBuffer.allocate(0);
+		encodedTable = ByteBuffer.allocate(0);
+	}
+
+	/**
+	 * When not <code>null</code>, the line ranges of the tables that are changed by formatting are added to this list.
+	 */
+	void setChangedTables(final List<LineRange> changedTables)
+	{
+		this.changedTables = changedTables;
+	}
+
+	/**
+	 * Tables of at least this many bytes are formatted in two passes, one row at a time, instead of being decoded and formatted as a whole.
+	 */
+	void setStreamingThreshold(final int streamingThreshold)
+	{
+		this.streamingThreshold = streamingThreshold;
+	}
+
+	/**
+	 * When the pool is not <code>null</code>, the tables in inputs of at least the threshold (in bytes) are formatted concurrently in its fork-join pool, by formatters of its contexts.
+	 * A table is only handed to the fork-join pool when a formatting permit is available for it; otherwise, we format it ourselves.
+	 * Tables are independent of each other, as every table ends at the first line that is not a table line.
+	 */
+	void setParallel(final FormatterPool pool, final long parallelThreshold)
+	{
+		this.pool = pool;
+		this.parallelThreshold = parallelThreshold;
+	}
+
+	/**
+	 * @return the number of tables formatted so far
+	 */
+	long getTablesFormatted()
+	{
+		return tableFormatter.getTablesWritten() + forkedTables;
+	}
+
+	/**
+	 * @return the number of table rows formatted so far
+	 */
+	long getRowsFormatted()
+	{
+		return tableFormatter.getRowsWritten() + forkedRows;
+	}
+
+	/**
+	 * Formats the bytes between the position and the limit of the input, and writes the result to the output.
+	 * The position and limit of the input are not changed.
+	 */
+	void format(final ByteBuffer input, final OutputStream output) throws IOException
+	{
+		if (pool != null && input.remaining() >= parallelThreshold)
+		{
+			formatInParallel(input, output);
+		}
+		else
+		{
+			formatSerially(input, output);
+		}
+	}
+
+	private void formatSerially(final ByteBuffer input, final OutputStream output) throws IOException
+	{
+		final int limit = input.limit();
+
+		// The start of the lines that we did not write yet. These are either copied verbatim, or formatted as a table.
+		int pendingStart = input.position();
+		boolean pendingIsTable = false;
+		int pendingStartLine = 1;
+
+		int lineStart = pendingStart;
+		int lineNumber = 1;
+		while (lineStart < limit)
+		{
+			final int lineEnd = scanLine(input, lineStart, limit);
+			final boolean isTableLine = scannedTableLine;
+			final int nextLineStart = nextLineStart(input, lineEnd, limit);
+
+			if (isTableLine != pendingIsTable)
+			{
+				writePending(input, pendingStart, lineStart, pendingIsTable, pendingStartLine, lineNumber - 1, output);
+				pendingStart = lineStart;
+				pendingIsTable = isTableLine;
+				pendingStartLine = lineNumber;
+			}
+
+			if (!isTableLine && !matches(input, lineEnd, nextLineStart, LINE_SEPARATOR))
+			{
+				// The line is not terminated by the system line separator (which the formatted output always uses), so we can not copy it verbatim
+				copy(input, pendingStart, lineEnd, output);
+				output.write(LINE_SEPARATOR);
+				pendingStart = nextLineStart;
+			}
+
+			lineStart = nextLineStart;
+			lineNumber++;
+		}
+
+		writePending(input, pendingStart, limit, pendingIsTable, pendingStartLine, lineNumber - 1, output);
+	}
+
+	/**
+	 * Finds the end of the line, and whether it is a table line; the latter is stored in {@link #scannedTableLine}, as we look at every byte only once.
+	 *
+	 * @return the position of the line terminator of the line that starts at lineStart, or limit when it has none
+	 */
+	private int scanLine(final ByteBuffer input, final int lineStart, final int limit)
+	{
+		int firstPipe = -1;
+		int lastPipe = -1;
+		int comment = -1;
+
+		int lineEnd = lineStart;
+		while (lineEnd < limit)
+		{
+			final byte b = input.get(lineEnd);
+			if (b == '\n' || b == '\r')
+			{
+				break;
+			}
+
+			if (b == COLUMN_SEPARATOR)
+			{
+				if (firstPipe < 0)
+				{
+					firstPipe = lineEnd;
+				}
+				lastPipe = lineEnd;
+			}
+			else if (b == LINE_COMMENT[0] && comment < 0 && startsWith(input, lineEnd, limit, LINE_COMMENT))
+			{
+				comment = lineEnd;
+			}
+			lineEnd++;
+		}
+
+		scannedTableLine = TableFormatter.isTableLine(firstPipe, lastPipe, comment);
+		return lineEnd;
+	}
+
+	/**
+	 * Scans the input for tables, and formats them in the fork-join pool, while the parts between the tables are copied.
+	 * Everything is written in order; we only wait for a table when it is its turn to be written, and at most a fixed number of tables is formatted ahead.
+	 * Tables that are formatted in two passes (see {@link #setStreamingThreshold(int)}) are formatted by this thread, when it is their turn, so they are never held in memory.
+	 * So are the tables for which no formatting permit was available.
+	 */
+	private void formatInParallel(final ByteBuffer input, final OutputStream output) throws IOException
+	{
+		final int maxTablesAhead = Math.max(pool.getForkJoinPool().getParallelism() * TABLES_AHEAD_PER_THREAD, 2);
+		final Deque<ForkedTable> tables = new ArrayDeque<>();
+		final int limit = input.limit();
+
+		// The part of the input up to here is either written, or part of a table in the deque
+		int handled = input.position();
+		int tableStart = -1;
+		int tableFirstLine = 0;
+
+		int lineStart = handled;
+		int lineNumber = 1;
+		while (lineStart <= limit)
+		{
+			final boolean isTableLine;
+			final int nextLineStart;
+			if (lineStart < limit)
+			{
+				final int lineEnd = scanLine(input, lineStart, limit);
+				isTableLine = scannedTableLine;
+				nextLineStart = nextLineStart(input, lineEnd, limit);
+			}
+			else
+			{
+				// The end of the input ends the last table
+				isTableLine = false;
+				nextLineStart = limit + 1;
+			}
+
+			if (isTableLine && tableStart < 0)
+			{
+				tableStart = lineStart;
+				tableFirstLine = lineNumber;
+			}
+			else if (!isTableLine && tableStart >= 0)
+			{
+				if (tables.size() == maxTablesAhead)
+				{
+					writeForkedTable(input, tables.removeFirst(), output);
+				}
+				tables.addLast(forkTable(input, handled, tableStart, lineStart, tableFirstLine, lineNumber - 1));
+				handled = lineStart;
+				tableStart = -1;
+			}
+
+			lineStart = nextLineStart;
+			lineNumber++;
+		}
+
+		while (!tables.isEmpty())
+		{
+			writeForkedTable(input, tables.removeFirst(), output);
+		}
+		formatSerially(slice(input, handled, limit), output);
+	}
+
+	private ForkedTable forkTable(final ByteBuffer input, final int textStart, final int start, final int end, final int firstLine, final int lastLine)
+	{
+		final ForkedTable table = new ForkedTable(textStart, start, end, firstLine, lastLine);
+		if (end - start < streamingThreshold && pool.tryAcquirePermit())
+		{
+			try
+			{
+				table.task = pool.getForkJoinPool().submit(() -> formatInContext(pool, input, start, end));
+			}
+			catch (RuntimeException e)
+			{
+				pool.releasePermit();
+				throw e;
+			}
+		}
+		return table;
+	}
+
+	/**
+	 * Formats a table on a thread of the fork-join pool, with the formatter of a context of the pool, and gives back the permit that was acquired for it.
+	 */
+	private static FormattedTable formatInContext(final FormatterPool pool, final ByteBuffer input, final int start, final int end)
+	{
+		try
+		{
+			final FormatterContext context = pool.acquireContext();
+			final FormattedTable result = context.getFormatter().formatForked(input, start, end);
+			context.fileDone(end - start);
+			pool.releaseContext(context);
+			return result;
+		}
+		finally
+		{
+			pool.releasePermit();
+		}
+	}
+
+	/**
+	 * Writes the text before the table, and then the table; waiting for it to be formatted when needed.
+	 */
+	private void writeForkedTable(final ByteBuffer input, final ForkedTable table, final OutputStream output) throws IOException
+	{
+		// There are no tables in the text, so it does not matter that its line numbers start at 1
+		formatSerially(slice(input, table.textStart, table.start), output);
+
+		final boolean changed;
+		if (table.end - table.start >= streamingThreshold)
+		{
+			changed = streamTable(input, table.start, table.end, output);
+		}
+		else if (table.task == null)
+		{
+			formatTable(input, table.start, table.end, output);
+			changed = !contentEquals(input, table.start, table.end, encodedTable);
+		}
+		else
+		{
+			final FormattedTable formattedTable = table.task.join();
+			output.write(formattedTable.bytes);
+			forkedTables += formattedTable.tables;
+			forkedRows += formattedTable.rows;
+			changed = formattedTable.changed;
+		}
+
+		if (changed && changedTables != null)
+		{
+			changedTables.add(new LineRange(table.firstLine, table.lastLine));
+		}
+	}
+
+	/**
+	 * Formats a table for {@link #formatInParallel(ByteBuffer, OutputStream)}, on a thread of the fork-join pool.
+	 */
+	private FormattedTable formatForked(final ByteBuffer input, final int start, final int end)
+	{
+		final long tablesBefore = getTablesFormatted();
+		final long rowsBefore = getRowsFormatted();
+		try
+		{
+			encodeTable(input, start, end);
+		}
+		catch (IOException e)
+		{
+			// Can not happen; the table is formatted into memory
+			throw new PipeTableFormatterException("Error while formatting table", e);
+		}
+		return new FormattedTable(Arrays.copyOf(encodedTable.array(), encodedTable.position()), !contentEquals(input, start, end, encodedTable), getTablesFormatted() - tablesBefore,
+				getRowsFormatted() - rowsBefore);
+	}
+
+	/**
+	 * @return a buffer with the bytes between start and end of the input as its position and limit
+	 */
+	private static ByteBuffer slice(final ByteBuffer input, final int start, final int end)
+	{
+		final ByteBuffer result = input.duplicate();
+		((Buffer) result).limit(end);
+		((Buffer) result).position(start);
+		return result;
+	}
+
+	private void writePending(final ByteBuffer input, final int start, final int end, final boolean isTable, final int firstLine, final int lastLine, final OutputStream output) throws IOException
+	{
+		if (!isTable)
+		{
+			copy(input, start, end, output);
+			return;
+		}
+
+		final boolean changed;
+		if (end - start >= streamingThreshold)
+		{
+			changed = streamTable(input, start, end, output);
+		}
+		else
+		{
+			formatTable(input, start, end, output);
+			changed = changedTables != null && !contentEquals(input, start, end, encodedTable);
+		}
+
+		if (changed && changedTables != null)
+		{
+			changedTables.add(new LineRange(firstLine, lastLine));
+		}
+	}
+
+	private void formatTable(final ByteBuffer input, final int start, final int end, final OutputStream output) throws IOException
+	{
+		encodeTable(input, start, end);
+		output.write(encodedTable.array(), 0, encodedTable.position());
+	}
+
+	/**
+	 * Formats the table into {@link #encodedTable}.
+	 */
+	private void encodeTable(final ByteBuffer input, final int start, final int end) throws IOException
+	{
+		final CharBuffer table = decode(input, start, end);
+
+		tableOutput.length = 0;
+		tableFormatter.format(table.array(), table.arrayOffset() + table.position(), table.arrayOffset() + table.limit());
+		tableFormatter.flushTable();
+
+		encode(tableOutput.chars, tableOutput.length);
+	}
+
+	/**
+	 * Formats the table in two passes over its lines: first to find the column widths, and then to format and write the rows.
+	 *
+	 * @return whether the formatted table differs from the input
+	 */
+	private boolean streamTable(final ByteBuffer input, final int start, final int end, final OutputStream output) throws IOException
+	{
+		int lineStart = start;
+		while (lineStart < end)
+		{
+			final int lineEnd = lineEnd(input, lineStart, end);
+			final CharBuffer line = decode(input, lineStart, lineEnd);
+			tableFormatter.measureTableRow(line.array(), line.arrayOffset() + line.position(), line.arrayOffset() + line.limit());
+			lineStart = nextLineStart(input, lineEnd, end);
+		}
+
+		// The output is compared with the input a chunk at a time, as we can not keep all of it
+		int compared = start;
+		boolean identical = true;
+		tableOutput.length = 0;
+		lineStart = start;
+		while (lineStart < end)
+		{
+			final int lineEnd = lineEnd(input, lineStart, end);
+			final CharBuffer line = decode(input, lineStart, lineEnd);
+			tableFormatter.writeTableRow(line.array(), line.arrayOffset() + line.position(), line.arrayOffset() + line.limit());
+			lineStart = nextLineStart(input, lineEnd, end);
+
+			if (tableOutput.length >= STREAMING_CHUNK_SIZE || lineStart >= end)
+			{
+				encodeAndWrite(tableOutput.chars, tableOutput.length, output);
+				tableOutput.length = 0;
+				identical = identical && regionEquals(input, compared, end, encodedTable);
+				compared += encodedTable.position();
+			}
+		}
+		tableFormatter.endTableRows();
+
+		return !identical || compared != end;
+	}
+
+	/**
+	 * @return the position of the line terminator of the line that starts at lineStart, or end when it has none
+	 */
+	private static int lineEnd(final ByteBuffer input, final int lineStart, final int end)
+	{
+		int lineEnd = lineStart;
+		while (lineEnd < end)
+		{
+			final byte b = input.get(lineEnd);
+			if (b == '\n' || b == '\r')
+			{
+				break;
+			}
+			lineEnd++;
+		}
+		return lineEnd;
+	}
+
+	/**
+	 * @return the start of the line after the line terminator at lineEnd
+	 */
+	private static int nextLineStart(final ByteBuffer input, final int lineEnd, final int end)
+	{
+		if (lineEnd >= end)
+		{
+			return end;
+		}
+		if (input.get(lineEnd) == '\r' && lineEnd + 1 < end && input.get(lineEnd + 1) == '\n')
+		{
+			return lineEnd + 2;
+		}
+		return lineEnd + 1;
+	}
+
+	private CharBuffer decode(final ByteBuffer input, final int start, final int end)
+	{
+		final ByteBuffer bytes = slice(input, start, end);
+
+		// Every byte decodes to at most one char
+		if (decodedTable.capacity() < end - start)
+		{
+			decodedTable = CharBuffer.allocate(Math.max(end - start, decodedTable.capacity() * 2));
+		}
+		((Buffer) decodedTable).clear();
+
+		decoder.reset();
+		decoder.decode(bytes, decodedTable, true);
+		decoder.flush(decodedTable);
+		((Buffer) decodedTable).flip();
+		return decodedTable;
+	}
+
+	private void encodeAndWrite(final char[] chars, final int length, final OutputStream output) throws IOException
+	{
+		encode(chars, length);
+		output.write(encodedTable.array(), 0, encodedTable.position());
+	}
+
+	/**
+	 * Encodes the characters into {@link #encodedTable}.
+	 */
+	private void encode(final char[] chars, final int length)
+	{
+		// Every char encodes to at most three bytes
+		if (encodedTable.capacity() < length * 3)
+		{
+			encodedTable = ByteBuffer.allocate(Math.max(length * 3, encodedTable.capacity() * 2));
+		}
+		((Buffer) encodedTable).clear();
+
+		if (charsToEncode == null || charsToEncode.array() != chars)
+		{
+			charsToEncode = CharBuffer.wrap(chars);
+		}
+		((Buffer) charsToEncode).clear().limit(length);
+
+		encoder.reset();
+		encoder.encode(charsToEncode, encodedTable, true);
+		encoder.flush(encodedTable);
+	}
+
+	private void copy(final ByteBuffer input, final int start, final int end, final OutputStream output) throws IOException
+	{
+		if (start >= end)
+		{
+			return;
+		}
+
+		if (input.hasArray())
+		{
+			output.write(input.array(), input.arrayOffset() + start, end - start);
+			return;
+		}
+
+		if (transferBuffer == null)
+		{
+			transferBuffer = new byte[TRANSFER_BUFFER_SIZE];
+		}
+		for (int position = start; position < end; position += transferBuffer.length)
+		{
+			final int length = Math.min(transferBuffer.length, end - position);
+			for (int i = 0; i < length; i++)
+			{
+				transferBuffer[i] = input.get(position + i);
+			}
+			output.write(transferBuffer, 0, length);
+		}
+	}
+
+	private static boolean startsWith(final ByteBuffer input, final int start, final int end, final byte[] prefix)
+	{
+		if (end - start < prefix.length)
+		{
+			return false;
+		}
+		for (int i = 0; i < prefix.length; i++)
+		{
+			if (input.get(start + i) != prefix[i])
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return whether the bytes between start and end of the input are the same as the bytes before the position of the other buffer
+	 */
+	private static boolean contentEquals(final ByteBuffer input, final int start, final int end, final ByteBuffer other)
+	{
+		return end - start == other.position() && regionEquals(input, start, end, other);
+	}
+
+	/**
+	 * @return whether the bytes before the position of the other buffer are the same as the bytes of the input from start on (but not beyond end)
+	 */
+	private static boolean regionEquals(final ByteBuffer input, final int start, final int end, final ByteBuffer other)
+	{
+		if (end - start < other.position())
+		{
+			return false;
+		}
+		for (int i = 0; i < other.position(); i++)
+		{
+			if (input.get(start + i) != other.get(i))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static boolean matches(final ByteBuffer input, final int start, final int end, final byte[] bytes)
+	{
+		return end - start == bytes.length && startsWith(input, start, end, bytes);
+	}
+
+	/**
+	 * A table that is formatted (or about to be) by {@link #formatInParallel(ByteBuffer, OutputStream)}, together with the text in front of it.
+	 */
+	private static final class ForkedTable
+	{
+		private final int textStart;
+		private final int start;
+		private final int end;
+		private final int firstLine;
+		private final int lastLine;
+
+		/**
+		 * Formats the table in the fork-join pool; <code>null</code> when the table is formatted by the thread that writes it instead.
+		 */
+		private ForkJoinTask<FormattedTable> task;
+
+		ForkedTable(final int textStart, final int start, final int end, final int firstLine, final int lastLine)
+		{
+			this.textStart = textStart;
+			this.start = start;
+			this.end = end;
+			this.firstLine = firstLine;
+			this.lastLine = lastLine;
+		}
+	}
+
+	private static final class FormattedTable
+	{
+		private final byte[] bytes;
+		private final boolean changed;
+		private final long tables;
+		private final long rows;
+
+		FormattedTable(final byte[] bytes, final boolean changed, final long tables, final long rows)
+		{
+			this.bytes = bytes;
+			this.changed = changed;
+			this.tables = tables;
+			this.rows = rows;
+		}
+	}
+
+	/**
+	 * Collects the output of the {@link TableFormatter}, so we can encode it in one go.
+	 */
+	private static final class TableOutput extends Writer
+	{
+		private char[] chars = new char[TRANSFER_BUFFER_SIZE];
+		private int length;
+
+		@Override
+		public void write(final char[] cbuf, final int off, final int len)
+		{
+			if (length + len > chars.length)
+			{
+				chars = Arrays.copyOf(chars, Math.max(length + len, chars.length * 2));
+			}
+			System.arraycopy(cbuf, off, chars, length, len);
+			length += len;
+		}
+
+		@Override
+		public void flush()
+		{
+			// Nothing to flush
+		}
+
+		@Override
+		public void close()
+		{
+			// Nothing to close
+		}
+	}
+}
@@ -0,0 +1,63 @@
+package org.jurr.pipetableformatter;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Gives access to the virtual threads of Java 21 and newer, while we are still compiled for Java 8.
+ */
+final class VirtualThreads
+{
+	private static final ThreadFactory FACTORY = createFactory("pipe-table-formatter-virtual-worker-");
+
+	private VirtualThreads()
+	{
+	}
+
+	/**
+	 * @return whether the running Java supports virtual threads
+	 */
+	static boolean isSupported()
+	{
+		return FACTORY != null;
+	}
+
+	/**
+	 * @return a factory for named virtual threads
+	 * @throws UnsupportedOperationException when the running Java does not support virtual threads
+	 */
+	static ThreadFactory threadFactory()
+	{
+		if (FACTORY == null)
+		{
+			throw new UnsupportedOperationException("Virtual threads need Java 21 or newer, this is Java " + System.getProperty("java.specification.version"));
+		}
+		return FACTORY;
+	}
+
+	/**
+	 * Does <code>Thread.ofVirtual().name(prefix, 0).factory()</code>.
+	 *
+	 * @return the factory, or <code>null</code> when virtual threads are not available
+	 */
+	private static ThreadFactory createFactory(final String prefix)
+	{
+		try
+		{
+			// Thread.Builder is a public interface; the builder that implements it is not, so we call the methods through the interface
+			final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			final Method ofVirtual = Thread.class.getMethod("ofVirtual");
+			final Method name = builderClass.getMethod("name", String.class, long.class);
+			final Method factory = builderClass.getMethod("factory");
+
+			final Object builder = name.invoke(ofVirtual.invoke(null), prefix, 0L);
+			return (ThreadFactory) factory.invoke(builder);
+		}
+		catch (ClassNotFoundException | NoSuchMethodException | IllegalAccessException | InvocationTargetException | RuntimeException e)
+		{
+			// Java 20 and older (where virtual threads are absent, or a preview feature), or a native image without reflection configuration
+			return null;
+		}
+	}
+}
@@ -2,32 +2,144 @@ package org.jurr.pipetableformatter;
 
 import java.io.IOException;
 import java.nio.file.FileSystems;
-import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
 import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
+@SuppressWarnings("squid:S106") // Suppress Sonar warning "Replace this use of System.out or System.err by a logger."
 public class Watcher implements Runnable
 {
-	private boolean running = true;
+	/**
+	 * The default time between two scans, when polling.
+	 */
+	public static final int DEFAULT_POLL_INTERVAL_MILLIS = 1000;
+
+	/**
+	 * The default time a file should not change, before we format it.
+	 */
+	public static final int DEFAULT_DEBOUNCE_MILLIS = 100;
+
+	private volatile boolean running = true;
 	private final List<Path> directories;
-	private final String fileMask;
+	private final FileMasks fileMasks;
+	private boolean ignoreFiles = true;
+	private boolean polling;
+	private int pollIntervalMillis = DEFAULT_POLL_INTERVAL_MILLIS;
+	private int threads = Runtime.getRuntime().availableProcessors();
+	private int debounceMillis = DEFAULT_DEBOUNCE_MILLIS;
+	private final CountDownLatch ready = new CountDownLatch(1);
+
+	/**
+	 * The state of every file right after we formatted it. When a file still has that state, there is nothing to format; that is how we ignore the changes we make ourselves.
+	 * Files that are deleted are forgotten, so this does not grow while the watched directories change.
+	 */
+	private final Map<Path, FileState> formatted = new ConcurrentHashMap<>();
+
+	private ChangeQueue changeQueue;
+
+	/**
+	 * Formats every changed file, so the buffers it keeps are reused from one change to the next.
+	 */
+	private final PipeTableFormatter pipeTableFormatter;
 
 	Watcher(final List<Path> directories, final String fileMask)
+	{
+		this(directories, new FileMasks(fileMask));
+	}
+
+	/**
+	 * @param fileMasks tells which files to format, and which directories not to watch
+	 */
+	Watcher(final List<Path> directories, final FileMasks fileMasks)
+	{
+		this(directories, fileMasks, new PipeTableFormatter());
+	}
+
+	/**
+	 * @param fileMasks tells which files to format, and which directories not to watch
+	 * @param pipeTableFormatter formats the changed files, as it is configured; only one file at a time is given to it, from several threads
+	 */
+	Watcher(final List<Path> directories, final FileMasks fileMasks, final PipeTableFormatter pipeTableFormatter)
 	{
 		this.directories = directories;
-		this.fileMask = fileMask;
+		this.fileMasks = fileMasks;
+		this.pipeTableFormatter = pipeTableFormatter;
+	}
+
+	/**
+	 * When set (the default), the files and directories that the <code>.gitignore</code> and <code>.pipetableformatterignore</code> files in the watched directories ignore, are not watched.
+	 * Neither are <code>.git</code> directories and excluded directories, whatever this is set to.
+	 */
+	public void setIgnoreFiles(final boolean ignoreFiles)
+	{
+		this.ignoreFiles = ignoreFiles;
+	}
+
+	/**
+	 * By default, we use a {@link WatchService} to find out about changes. When polling, we scan the directories for files with a different size or modification time instead.
+	 * Polling works everywhere, including in a GraalVM native image, and on file systems that don't send change notifications (like some network file systems).
+	 */
+	public void setPolling(final boolean polling)
+	{
+		this.polling = polling;
+	}
+
+	/**
+	 * The time between two scans, when polling.
+	 */
+	public void setPollIntervalMillis(final int pollIntervalMillis)
+	{
+		if (pollIntervalMillis < 1)
+		{
+			throw new IllegalArgumentException("The poll interval should be at least 1 millisecond, not " + pollIntervalMillis);
+		}
+		this.pollIntervalMillis = pollIntervalMillis;
+	}
+
+	/**
+	 * The number of threads that format changed files.
+	 */
+	public void setThreads(final int threads)
+	{
+		if (threads < 1)
+		{
+			throw new IllegalArgumentException("Need at least one thread, not " + threads);
+		}
+		this.threads = threads;
+	}
+
+	/**
+	 * How long a file should not change, before we format it. All changes within that time are formatted at once.
+	 */
+	public void setDebounceMillis(final int debounceMillis)
+	{
+		if (debounceMillis < 0)
+		{
+			throw new IllegalArgumentException("The debounce time can not be negative, but is " + debounceMillis);
+		}
+		this.debounceMillis = debounceMillis;
+	}
+
+	/**
+	 * Where to count what is formatted, and where the time goes.
+	 */
+	public void setStats(final FormatStats stats)
+	{
+		pipeTableFormatter.setStats(stats);
 	}
 
 	public void stop()
@@ -35,27 +147,133 @@ public class Watcher implements Runnable
 		running = false;
 	}
 
+	/**
+	 * Waits until the watcher notices changes.
+	 *
+	 * @return <code>false</code> when the timeout passed before that
+	 */
+	boolean awaitReady(final long timeout, final TimeUnit unit) throws InterruptedException
+	{
+		return ready.await(timeout, unit);
+	}
+
+	/**
+	 * @return the files that we formatted, and that were not deleted since (as far as we know)
+	 */
+	Set<Path> getFormattedFiles()
+	{
+		return Collections.unmodifiableSet(formatted.keySet());
+	}
+
 	@Override
 	public void run()
 	{
-		final String javaNioFileMask = "glob:**/" + fileMask;
-		final PathMatcher pathMatcher = FileSystems.getDefault().getPathMatcher(javaNioFileMask);
+		changeQueue = new ChangeQueue(threads, debounceMillis, this::format);
+		try
+		{
+			if (polling)
+			{
+				poll(new FileIndex(fileMasks, ignoreFiles));
+			}
+			else
+			{
+				watch(new FileIndex(fileMasks, ignoreFiles));
+			}
+		}
+		finally
+		{
+			try
+			{
+				changeQueue.close();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Formats the file, unless it did not change since we formatted it last.
+	 */
+	private void format(final Path file)
+	{
+		try
+		{
+			if (FileState.of(file).equals(formatted.get(file)))
+			{
+				// Most likely, this is the change we made ourselves
+				return;
+			}
+
+			pipeTableFormatter.pipeTablesInFile(file);
+			formatted.put(file, FileState.of(file));
+		}
+		catch (NoSuchFileException e)
+		{
+			// The file was deleted (or renamed) since it changed
+			formatted.remove(file);
+		}
+		catch (IOException | PipeTableFormatterException e)
+		{
+			// Keep watching; the file will probably change again
+			System.err.println("Error while formatting " + file + ": " + e.getMessage());
+		}
+	}
+
+	private void poll(final FileIndex index)
+	{
+		for (Path directory : directories)
+		{
+			checkIsDirectory(directory);
+			index.scan(directory);
+		}
+		ready.countDown();
 
-		try (WatchService watcher = FileSystems.getDefault().newWatchService())
+		try
+		{
+			while (running)
+			{
+				Thread.sleep(pollIntervalMillis);
+
+				for (Path directory : directories)
+				{
+					index.scan(directory).forEach(changeQueue::changed);
+					forgetDeletedFiles(directory, index);
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			running = false;
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void watch(final FileIndex index)
+	{
+		try (WatchService watchService = FileSystems.getDefault().newWatchService())
 		{
 			final Map<WatchKey, Path> keys = new HashMap<>();
+			final Consumer<Path> register = dir -> register(watchService, dir, keys);
 
-			setupWatchService(watcher, keys);
+			// The index is only needed to find out what changed when we missed events, but it is filled in the same walk that registers the directories
+			for (Path directory : directories)
+			{
+				checkIsDirectory(directory);
+				index.scan(directory, register);
+			}
+			ready.countDown();
 
 			while (running && !keys.isEmpty())
 			{
-				final WatchKey key = watcher.poll(5, TimeUnit.SECONDS);
+				final WatchKey key = watchService.poll(5, TimeUnit.SECONDS);
 				if (key == null)
 				{
 					continue;
 				}
 
-				handleWatchServiceEvent(pathMatcher, keys, key);
+				handleWatchServiceEvent(index, register, keys, key);
 			}
 		}
 		catch (InterruptedException e)
@@ -69,7 +287,7 @@ public class Watcher implements Runnable
 		}
 	}
 
-	private void handleWatchServiceEvent(final PathMatcher pathMatcher, final Map<WatchKey, Path> keys, final WatchKey key)
+	private void handleWatchServiceEvent(final FileIndex index, final Consumer<Path> register, final Map<WatchKey, Path> keys, final WatchKey key)
 	{
 		final Path dir = keys.get(key);
 		if (dir == null)
@@ -83,6 +301,8 @@ public class Watcher implements Runnable
 
 			if (kind == StandardWatchEventKinds.OVERFLOW)
 			{
+				// We missed events, so we find out ourselves what changed
+				rescan(dir, index, register);
 				continue;
 			}
 
@@ -91,9 +311,23 @@ public class Watcher implements Runnable
 			final Path filename = ev.context();
 			final Path file = dir.resolve(filename);
 
-			if (pathMatcher.matches(file))
+			if (kind == StandardWatchEventKinds.ENTRY_DELETE)
+			{
+				deleted(file, index);
+			}
+			else if (kind == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(file, LinkOption.NOFOLLOW_LINKS))
+			{
+				// Files may have been created in the directory before we registered it
+				rescan(file, index, register);
+			}
+			else if (index.isIgnoreFile(file))
 			{
-				new PipeTableFormatter().pipeTablesInFile(file);
+				// Other files and directories may be ignored now
+				rescan(dir, index, register);
+			}
+			else if (index.matches(file))
+			{
+				changeQueue.changed(file);
 			}
 		}
 
@@ -103,37 +337,63 @@ public class Watcher implements Runnable
 		}
 	}
 
-	private void setupWatchService(final WatchService watcher, final Map<WatchKey, Path> keys)
+	/**
+	 * Walks only the directory, registers the directories in it that are new, and formats the files in it that changed since we last walked it.
+	 */
+	private void rescan(final Path directory, final FileIndex index, final Consumer<Path> register)
 	{
-		Consumer<Path> register = p -> {
-			if (!p.toFile().exists() || !p.toFile().isDirectory())
-			{
-				throw new IllegalArgumentException(p + " does not exist or is not a directory");
-			}
-			try
-			{
-				Files.walkFileTree(p, new SimpleFileVisitor<Path>()
-				{
-					@Override
-					public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException
-					{
-						final WatchEvent.Kind<?>[] events = new WatchEvent.Kind[] { StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY };
+		index.scan(directory, register).forEach(changeQueue::changed);
+		forgetDeletedFiles(directory, index);
+	}
 
-						@SuppressWarnings({ "restriction", "squid:S1191" }) // Suppress Sonar warning "Use classes from the Java API instead of Sun classes."
-						final WatchKey watchKey = dir.register(watcher, events, com.sun.nio.file.SensitivityWatchEventModifier.HIGH);
+	/**
+	 * Forgets the file (or the directory, with everything in it) that was deleted.
+	 */
+	private void deleted(final Path path, final FileIndex index)
+	{
+		formatted.remove(path);
+		if (index.remove(path))
+		{
+			formatted.keySet().removeIf(file -> file.startsWith(path));
+		}
+	}
 
-						keys.put(watchKey, dir);
+	/**
+	 * Forgets the files in the directory that the index no longer holds, after the directory was walked.
+	 */
+	private void forgetDeletedFiles(final Path directory, final FileIndex index)
+	{
+		formatted.keySet().removeIf(file -> file.startsWith(directory) && !index.contains(file));
+	}
 
-						return FileVisitResult.CONTINUE;
-					}
-				});
-			}
-			catch (IOException e)
-			{
-				throw new WatcherException("Error registering directories " + p, e);
-			}
-		};
+	/**
+	 * Registers the directory with the watch service. Registering a directory again is harmless.
+	 */
+	private static void register(final WatchService watchService, final Path dir, final Map<WatchKey, Path> keys)
+	{
+		final WatchEvent.Kind<?>[] events = new WatchEvent.Kind[] { StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE };
+		try
+		{
+			@SuppressWarnings({ "restriction", "squid:S1191" }) // Suppress Sonar warning "Use classes from the Java API instead of Sun classes."
+			final WatchKey watchKey = dir.register(watchService, events, com.sun.nio.file.SensitivityWatchEventModifier.HIGH);
 
-		directories.forEach(register::accept);
+			keys.put(watchKey, dir);
+		}
+		catch (NoSuchFileException e)
+		{
+			// The directory was deleted right after it was created
+		}
+		catch (IOException e)
+		{
+			throw new WatcherException("Error registering directory " + dir, e);
+		}
+	}
+
+	private static void checkIsDirectory(final Path p)
+	{
+		if (!p.toFile().exists() || !p.toFile().isDirectory())
+		{
+			throw new IllegalArgumentException(p + " does not exist or is not a directory");
+		}
 	}
-}
+}
\ No newline at end of file
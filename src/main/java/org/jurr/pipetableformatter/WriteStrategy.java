@@ -0,0 +1,26 @@
+package org.jurr.pipetableformatter;
+
+/**
+ * How a file that needs formatting is written; see {@link PipeTableFormatter#setWriteStrategy(WriteStrategy)}.
+ */
+public enum WriteStrategy
+{
+	/**
+	 * The formatted content is written to a temporary file next to the file, which then atomically replaces it. Readers never see a half written file.
+	 */
+	RENAME,
+
+	/**
+	 * The file is overwritten in place, starting where the formatted content first differs, and truncated afterwards. Only the blocks that change are written, and no directory entries are touched.
+	 * Readers may see a half written file, and so may we after a crash. Files that are memory mapped (see {@link PipeTableFormatter#setMemoryMapThreshold(long)}) are written as with {@link #RENAME},
+	 * as they are still being read while they are written.
+	 */
+	IN_PLACE,
+
+	/**
+	 * Like {@link #RENAME}, but the temporary file starts out as a copy-on-write clone (a reflink) of the file, and is only written from where the formatted content first differs.
+	 * This needs a <code>cp</code> that supports <code>--reflink</code>, and a file system that supports reflinks (like Btrfs or XFS). Where that is not the case, this falls back to {@link #RENAME}.
+	 * So does a file where less than a megabyte would not be written, as starting <code>cp</code> would take longer than writing that; see {@link Reflinks}.
+	 */
+	REFLINK;
+}
@@ -0,0 +1,82 @@
+package org.jurr.pipetableformatter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+class ChangeDetectingOutputStreamTest
+{
+	private ByteArrayOutputStream target;
+
+	@ParameterizedTest
+	@CsvSource({ //
+			"abcdef, abcdef, false", //
+			"abcdef, abcXef, true", //
+			"abcdef, abc, true", //
+			"abcdef, abcdefgh, true", //
+			"abcdef, '', true", //
+			"'', '', false", //
+			"'', a, true", //
+	})
+	void testOutputIsOnlyWrittenWhenItDiffers(final String original, final String output, final boolean differs) throws IOException
+	{
+		// Given
+		final ChangeDetectingOutputStream stream = new ChangeDetectingOutputStream(ByteBuffer.wrap(original.getBytes(StandardCharsets.UTF_8)), () -> {
+			target = new ByteArrayOutputStream();
+			return target;
+		});
+
+		// When
+		final byte[] bytes = output.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > 0)
+		{
+			// Write a single byte first, and the rest in one go
+			stream.write(bytes[0]);
+			stream.write(bytes, 1, bytes.length - 1);
+		}
+		final boolean actual = stream.finish();
+		stream.close();
+
+		// Then
+		assertEquals(differs, actual);
+		if (differs)
+		{
+			assertEquals(output, new String(target.toByteArray(), StandardCharsets.UTF_8));
+		}
+		else
+		{
+			assertNull(target, "The target should not be opened when the output is identical");
+		}
+	}
+
+	@Test
+	void testDirectOriginal() throws IOException
+	{
+		// Given
+		final byte[] originalBytes = "abcdef".getBytes(StandardCharsets.UTF_8);
+		final ByteBuffer direct = ByteBuffer.allocateDirect(originalBytes.length);
+		direct.put(originalBytes);
+		((Buffer) direct).rewind();
+		final ChangeDetectingOutputStream stream = new ChangeDetectingOutputStream(direct, () -> {
+			target = new ByteArrayOutputStream();
+			return target;
+		});
+
+		// When
+		stream.write("abcXef".getBytes(StandardCharsets.UTF_8));
+
+		// Then
+		assertTrue(stream.finish());
+		assertEquals("abcXef", new String(target.toByteArray(), StandardCharsets.UTF_8));
+	}
+}
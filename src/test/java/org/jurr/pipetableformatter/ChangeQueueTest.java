@@ -0,0 +1,92 @@
+package org.jurr.pipetableformatter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class ChangeQueueTest
+{
+	@Test
+	void testChangesAreCoalesced() throws InterruptedException
+	{
+		// Given
+		final Map<Path, AtomicInteger> calls = new ConcurrentHashMap<>();
+		final CountDownLatch done = new CountDownLatch(2);
+		final ChangeQueue changeQueue = new ChangeQueue(2, 200, path -> {
+			calls.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+			done.countDown();
+		});
+		final Path a = Paths.get("a.story");
+		final Path b = Paths.get("b.story");
+
+		try
+		{
+			// When
+			for (int i = 0; i < 10; i++)
+			{
+				changeQueue.changed(a);
+				changeQueue.changed(b);
+			}
+
+			// Then
+			assertTrue(done.await(10, TimeUnit.SECONDS));
+			Thread.sleep(400);
+			assertEquals(1, calls.get(a).get());
+			assertEquals(1, calls.get(b).get());
+		}
+		finally
+		{
+			changeQueue.close();
+		}
+	}
+
+	@Test
+	void testPathIsNotHandledTwiceAtTheSameTime() throws InterruptedException
+	{
+		// Given
+		final AtomicInteger busy = new AtomicInteger();
+		final AtomicInteger maxBusy = new AtomicInteger();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(2);
+		final ChangeQueue changeQueue = new ChangeQueue(4, 0, path -> {
+			maxBusy.accumulateAndGet(busy.incrementAndGet(), Math::max);
+			started.countDown();
+			try
+			{
+				Thread.sleep(200);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			busy.decrementAndGet();
+			done.countDown();
+		});
+		final Path a = Paths.get("a.story");
+
+		try
+		{
+			// When
+			changeQueue.changed(a);
+			assertTrue(started.await(10, TimeUnit.SECONDS));
+			changeQueue.changed(a);
+
+			// Then
+			assertTrue(done.await(10, TimeUnit.SECONDS), "A change during handling should be handled afterwards");
+			assertEquals(1, maxBusy.get());
+		}
+		finally
+		{
+			changeQueue.close();
+		}
+	}
+}
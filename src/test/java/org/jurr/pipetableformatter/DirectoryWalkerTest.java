@@ -0,0 +1,129 @@
+package org.jurr.pipetableformatter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DirectoryWalkerTest
+{
+	@Test
+	void testWalkHonoursMasksAndIgnoreFiles(@TempDir final Path tempDir) throws IOException, InterruptedException
+	{
+		// Given
+		createFiles(tempDir, "a.story", "b.md", "c.txt", "target/d.story", "docs/e.story", "docs/generated/f.story", "docs/keep/g.story", "node_modules/x/h.story", ".git/i.story",
+				"sub/j.story", "sub/k.story", "sub/deep/docs/l.story");
+		write(tempDir.resolve(".gitignore"), "# Build output", "target/", "/docs/generated", "node_modules");
+		write(tempDir.resolve("sub/.pipetableformatterignore"), "*.story", "!k.story");
+		final FileMasks fileMasks = new FileMasks(Arrays.asList("*.story", "*.md"), Collections.singletonList("docs/keep/**"));
+
+		// When
+		final Set<String> found = walk(tempDir, new DirectoryWalker(fileMasks, true, 4, new FormatStats()));
+
+		// Then
+		assertEquals(new TreeSet<>(Arrays.asList("a.story", "b.md", "docs/e.story", "sub/k.story")), found);
+	}
+
+	@Test
+	void testWalkWithoutIgnoreFiles(@TempDir final Path tempDir) throws IOException, InterruptedException
+	{
+		// Given
+		createFiles(tempDir, "a.story", "target/b.story", ".git/c.story");
+		write(tempDir.resolve(".gitignore"), "target/");
+
+		// When
+		final Set<String> found = walk(tempDir, new DirectoryWalker(new FileMasks("*.story"), false, 1, new FormatStats()));
+
+		// Then
+		assertEquals(new TreeSet<>(Arrays.asList("a.story", "target/b.story")), found);
+	}
+
+	@Test
+	void testWalkRelativeDirectory() throws IOException, InterruptedException
+	{
+		// Given
+		final Path relativeDir = Files.createTempDirectory(Paths.get("target"), "docs");
+		try
+		{
+			createFiles(relativeDir, "a.story", "b.md", "generated/c.story", "sub/d.story");
+			final String root = relativeDir.toString().replace('\\', '/');
+			final FileMasks fileMasks = new FileMasks(Arrays.asList(root + "/*.story", "*.md", "sub/*.story"), Collections.singletonList(root + "/generated/**"));
+
+			// When
+			final Set<String> found = walk(relativeDir, new DirectoryWalker(fileMasks, true, 2, new FormatStats()));
+
+			// Then
+			assertFalse(relativeDir.isAbsolute());
+			assertEquals(new TreeSet<>(Arrays.asList("a.story", "b.md", "sub/d.story")), found);
+		}
+		finally
+		{
+			deleteRecursively(relativeDir);
+		}
+	}
+
+	@Test
+	void testWalkStopsWhenConsumerSaysSo(@TempDir final Path tempDir) throws IOException, InterruptedException
+	{
+		// Given
+		createFiles(tempDir, "a.story", "b.story", "sub/c.story");
+		final DirectoryWalker walker = new DirectoryWalker(new FileMasks("*.story"), true, 2, new FormatStats());
+
+		// When
+		final boolean completed = walker.walk(tempDir, file -> false);
+
+		// Then
+		assertFalse(completed);
+	}
+
+	private static Set<String> walk(final Path directory, final DirectoryWalker walker) throws InterruptedException
+	{
+		final Set<String> result = new ConcurrentSkipListSet<>();
+		walker.walk(directory, file -> result.add(directory.relativize(file).toString().replace('\\', '/')));
+		return new TreeSet<>(result);
+	}
+
+	private static void createFiles(final Path directory, final String... files) throws IOException
+	{
+		for (String file : files)
+		{
+			final Path path = directory.resolve(file);
+			Files.createDirectories(path.getParent());
+			Files.createFile(path);
+		}
+	}
+
+	private static void deleteRecursively(final Path directory) throws IOException
+	{
+		try (Stream<Path> paths = Files.walk(directory))
+		{
+			final List<Path> sorted = paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+			for (Path path : sorted)
+			{
+				Files.delete(path);
+			}
+		}
+	}
+
+	private static void write(final Path file, final String... lines) throws IOException
+	{
+		final List<String> content = Arrays.asList(lines);
+		Files.write(file, content, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,37 @@
+package org.jurr.pipetableformatter;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+class FilePipelineTest
+{
+	@Test
+	@Timeout(value = 10, unit = TimeUnit.SECONDS)
+	void testErrorInWorkerIsRethrown()
+	{
+		// Given
+		final AssertionError error = new AssertionError("Broken");
+		final FilePipeline pipeline = new FilePipeline(1, path -> {
+			throw error;
+		});
+
+		// When
+		final AssertionError thrown = assertThrows(AssertionError.class, () -> {
+			// More paths than fit in the queue, so we would wait forever for the worker that is gone
+			for (int i = 0; i < 100; i++)
+			{
+				pipeline.submit(Paths.get(i + ".story"));
+			}
+			pipeline.finish();
+		});
+
+		// Then
+		assertSame(error, thrown);
+	}
+}
@@ -0,0 +1,125 @@
+package org.jurr.pipetableformatter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FormatCacheTest
+{
+	private static final String FORMATTED = "| a | b |" + System.lineSeparator();
+
+	/**
+	 * Has the same size as {@link #FORMATTED}, so only the modification time tells them apart.
+	 */
+	private static final String UNFORMATTED_SAME_SIZE = "|a  |  b|" + System.lineSeparator();
+
+	@Test
+	void testUnchangedFileIsSkipped(@TempDir final Path tempDir) throws IOException
+	{
+		// Given
+		final Path cacheFile = tempDir.resolve("cache");
+		final Path storyFile = tempDir.resolve("test.story");
+		final FileTime anHourAgo = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+		write(storyFile, "|a|b|", anHourAgo);
+		format(cacheFile, storyFile);
+		Files.setLastModifiedTime(storyFile, anHourAgo);
+		format(cacheFile, storyFile);
+
+		// When
+		write(storyFile, UNFORMATTED_SAME_SIZE, anHourAgo);
+		format(cacheFile, storyFile);
+
+		// Then
+		assertEquals(UNFORMATTED_SAME_SIZE, read(storyFile), "The cache should have said the file is formatted already");
+	}
+
+	@Test
+	void testModifiedFileIsFormatted(@TempDir final Path tempDir) throws IOException
+	{
+		// Given
+		final Path cacheFile = tempDir.resolve("cache");
+		final Path storyFile = tempDir.resolve("test.story");
+		final FileTime anHourAgo = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+		write(storyFile, "|a|b|", anHourAgo);
+		format(cacheFile, storyFile);
+		Files.setLastModifiedTime(storyFile, anHourAgo);
+		format(cacheFile, storyFile);
+
+		// When
+		write(storyFile, UNFORMATTED_SAME_SIZE, FileTime.fromMillis(System.currentTimeMillis()));
+		format(cacheFile, storyFile);
+
+		// Then
+		assertEquals(FORMATTED, read(storyFile));
+	}
+
+	@Test
+	void testKeptCacheSkipsUnchangedFile(@TempDir final Path tempDir) throws IOException
+	{
+		// Given
+		final FormatCache cache = FormatCache.load(tempDir.resolve("cache"));
+		final Path storyFile = tempDir.resolve("test.story");
+		final FileTime anHourAgo = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+		write(storyFile, "|a|b|", anHourAgo);
+		format(cache, storyFile);
+		Files.setLastModifiedTime(storyFile, anHourAgo);
+		format(cache, storyFile);
+
+		// When
+		write(storyFile, UNFORMATTED_SAME_SIZE, anHourAgo);
+		format(cache, storyFile);
+
+		// Then
+		assertEquals(UNFORMATTED_SAME_SIZE, read(storyFile), "The cache that was kept (like the daemon does) should have said the file is formatted already");
+	}
+
+	@Test
+	void testCacheForOtherRulesIsIgnored(@TempDir final Path tempDir) throws IOException
+	{
+		// Given
+		final Path cacheFile = tempDir.resolve("cache");
+		final Path storyFile = tempDir.resolve("test.story");
+		final FileTime anHourAgo = FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+		write(storyFile, UNFORMATTED_SAME_SIZE, anHourAgo);
+		Files.write(cacheFile, ("pipe-table-formatter-cache rules=0" + System.lineSeparator() //
+				+ UNFORMATTED_SAME_SIZE.length() + "\t" + anHourAgo.toMillis() + "\tcafe\t" + storyFile.toAbsolutePath() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+
+		// When
+		format(cacheFile, storyFile);
+
+		// Then
+		assertEquals(FORMATTED, read(storyFile));
+	}
+
+	private static void format(final Path cacheFile, final Path storyFile)
+	{
+		format(FormatCache.load(cacheFile), storyFile);
+	}
+
+	private static void format(final FormatCache cache, final Path storyFile)
+	{
+		final PipeTableFormatter pipeTableFormatter = new PipeTableFormatter();
+		pipeTableFormatter.setCache(cache);
+		pipeTableFormatter.pipeTablesInFile(storyFile);
+		cache.save();
+	}
+
+	private static void write(final Path file, final String content, final FileTime lastModifiedTime) throws IOException
+	{
+		Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+		Files.setLastModifiedTime(file, lastModifiedTime);
+	}
+
+	private static String read(final Path file) throws IOException
+	{
+		return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,60 @@
+package org.jurr.pipetableformatter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class FormatStatsTest
+{
+	@Test
+	void testLatencyPercentiles()
+	{
+		// Given
+		final FormatStats stats = new FormatStats();
+
+		// When
+		for (int micros = 1; micros <= 1000; micros++)
+		{
+			stats.fileLatency(TimeUnit.MICROSECONDS.toNanos(micros));
+		}
+
+		// Then
+		assertEstimate(500, stats.getLatencyP50Micros());
+		assertEstimate(990, stats.getLatencyP99Micros());
+		assertEquals(1000, stats.getLatencyMaxMicros());
+		assertEquals(1000, stats.getLatencyPercentileMicros(100));
+	}
+
+	@Test
+	void testAdd()
+	{
+		// Given
+		final FormatStats stats = new FormatStats();
+		stats.fileScanned();
+		stats.phase(FormatStats.Phase.READ, 10);
+		stats.fileLatency(TimeUnit.MICROSECONDS.toNanos(100));
+		final FormatStats totalStats = new FormatStats();
+		totalStats.fileScanned();
+		totalStats.fileLatency(TimeUnit.MICROSECONDS.toNanos(10));
+
+		// When
+		totalStats.add(stats);
+
+		// Then
+		assertEquals(2, totalStats.getFilesScanned());
+		assertEquals(10, totalStats.getPhaseNanos(FormatStats.Phase.READ));
+		assertEquals(100, totalStats.getLatencyMaxMicros());
+		assertEstimate(10, totalStats.getLatencyP50Micros());
+	}
+
+	/**
+	 * The histogram buckets are up to 25% wide, and we report the upper end of a bucket.
+	 */
+	private static void assertEstimate(final long expected, final long actual)
+	{
+		assertTrue(actual >= expected && actual <= expected * 1.25, "Expected about " + expected + ", but was " + actual);
+	}
+}
@@ -0,0 +1,69 @@
+package org.jurr.pipetableformatter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FormatterContextTest
+{
+	@Test
+	void testReadReusesBuffer(@TempDir final Path tempDir) throws IOException
+	{
+		// Given
+		final FormatterContext context = new FormatterContext();
+		final byte[] largeContent = new byte[100_000];
+		Arrays.fill(largeContent, (byte) 'x');
+		final byte[] smallContent = "|a|b|\n".getBytes(StandardCharsets.UTF_8);
+		final Path largeFile = Files.write(tempDir.resolve("large.story"), largeContent);
+		final Path smallFile = Files.write(tempDir.resolve("small.story"), smallContent);
+
+		// When
+		final ByteBuffer large = context.read(largeFile);
+		context.fileDone(largeContent.length);
+		final ByteBuffer small = context.read(smallFile);
+		context.fileDone(smallContent.length);
+
+		// Then
+		assertArrayEquals(smallContent, toArray(small));
+		assertSame(large.array(), small.array(), "The read buffer should be reused");
+		assertSame(context.getFormatter(), context.getFormatter());
+	}
+
+	@Test
+	void testOversizedBuffersAreDropped(@TempDir final Path tempDir) throws IOException
+	{
+		// Given
+		final FormatterContext context = new FormatterContext();
+		final Path largeFile = Files.write(tempDir.resolve("large.story"), new byte[4 * 1024 * 1024]);
+		final Path smallFile = Files.write(tempDir.resolve("small.story"), new byte[10]);
+		final ByteBuffer large = context.read(largeFile);
+		final Utf8Formatter formatter = context.getFormatter();
+		context.fileDone(large.remaining());
+
+		// When
+		for (int i = 0; i < 100; i++)
+		{
+			context.read(smallFile);
+			context.fileDone(10);
+		}
+
+		// Then
+		assertNotSame(large.array(), context.read(smallFile).array(), "The read buffer should shrink to the recent files");
+		assertNotSame(formatter, context.getFormatter(), "The formatter should be dropped with its buffers");
+	}
+
+	private static byte[] toArray(final ByteBuffer buffer)
+	{
+		return Arrays.copyOfRange(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.arrayOffset() + buffer.limit());
+	}
+}
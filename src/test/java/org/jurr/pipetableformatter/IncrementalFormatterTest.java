@@ -0,0 +1,111 @@
+package org.jurr.pipetableformatter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class IncrementalFormatterTest
+{
+	@Test
+	void testFormat()
+	{
+		// Given
+		final String document = "Text\n|a|b|\r\n|cc|d|\nMore text\n|x|\n|yy|";
+		final IncrementalFormatter formatter = new IncrementalFormatter(document);
+
+		// When
+		final List<TextEdit> edits = formatter.format();
+
+		// Then
+		final String expected = "Text\n| a  | b |\r\n| cc | d |\nMore text\n| x  |\n| yy |";
+		assertEquals(expected, formatter.getText());
+		assertEquals(expected, apply(document, edits));
+		assertEquals(Arrays.asList(new LineRange(2, 3), new LineRange(5, 6)), formatter.getTables());
+	}
+
+	@Test
+	void testEditOnlyTouchesEditedTable()
+	{
+		// Given
+		final IncrementalFormatter formatter = new IncrementalFormatter("| a | b |\n| c | d |\nText\n| x |\n");
+		final String before = formatter.getText();
+
+		// When
+		final List<TextEdit> edits = formatter.edit(before.indexOf('c') + 1, 0, "cc");
+
+		// Then
+		assertEquals("| a   | b |\n| ccc | d |\nText\n| x |\n", formatter.getText());
+		assertEquals(Collections.singletonList(new TextEdit(4, 0, "  ")), edits);
+	}
+
+	@Test
+	void testEditSplitsTable()
+	{
+		// Given
+		final IncrementalFormatter formatter = new IncrementalFormatter("| a     | b |\n| c     | d |\n| eeeee | f |\n");
+
+		// When
+		formatter.edit(formatter.getText().indexOf("| c"), "| c     | d |".length(), "c d");
+
+		// Then
+		assertEquals("| a | b |\nc d\n| eeeee | f |\n", formatter.getText());
+		assertEquals(Arrays.asList(new LineRange(1, 1), new LineRange(3, 3)), formatter.getTables());
+	}
+
+	/**
+	 * Makes random edits, and checks that the document is the same as when it is formatted from scratch after every edit.
+	 */
+	@ParameterizedTest
+	@ValueSource(longs = { 1, 2, 3, 4, 5 })
+	void testRandomEditsGiveSameResultAsFormattingFromScratch(final long seed)
+	{
+		// Given
+		final Random random = new Random(seed);
+		final String[] fragments = { "|", "|", "| ", "a", "bb", " ", "\n", "\r\n", "\r", "!--", "|--", "Text" };
+		final IncrementalFormatter formatter = new IncrementalFormatter("Text\n|a|b|\n|c|d|\nText\n");
+		formatter.format();
+
+		for (int i = 0; i < 500; i++)
+		{
+			// When
+			final String before = formatter.getText();
+			final int offset = random.nextInt(before.length() + 1);
+			final int length = random.nextInt(Math.min(4, before.length() - offset) + 1);
+			final String replacement = random.nextInt(3) == 0 ? "" : fragments[random.nextInt(fragments.length)];
+			final String edited = before.substring(0, offset) + replacement + before.substring(offset + length);
+
+			final List<TextEdit> edits = formatter.edit(offset, length, replacement);
+
+			// Then
+			final IncrementalFormatter fromScratch = new IncrementalFormatter(edited);
+			fromScratch.format();
+			final String message = "After replacing " + length + " characters at " + offset + " in '" + before + "' with '" + replacement + "'";
+			assertEquals(fromScratch.getText(), formatter.getText(), message);
+			assertEquals(fromScratch.getTables(), formatter.getTables(), message);
+			assertEquals(formatter.getText(), apply(edited, edits), message);
+			for (int j = 1; j < edits.size(); j++)
+			{
+				assertTrue(edits.get(j - 1).getOffset() + edits.get(j - 1).getLength() <= edits.get(j).getOffset(), message);
+			}
+		}
+	}
+
+	private static String apply(final String text, final List<TextEdit> edits)
+	{
+		final StringBuilder result = new StringBuilder(text);
+		for (int i = edits.size() - 1; i >= 0; i--)
+		{
+			final TextEdit edit = edits.get(i);
+			result.replace(edit.getOffset(), edit.getOffset() + edit.getLength(), edit.getReplacement());
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,83 @@
+package org.jurr.pipetableformatter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class PermitReleasingTargetTest
+{
+	@Test
+	void testPermitIsGivenUpWhileOpeningAndWriting() throws IOException
+	{
+		// Given
+		final FormatterPool pool = new FormatterPool(1);
+		final List<String> permitFree = new ArrayList<>();
+		final ByteArrayOutputStream written = new ByteArrayOutputStream();
+		final ChangeDetectingOutputStream.Target target = () -> {
+			checkPermitFree(pool, "open", permitFree);
+			return new OutputStream()
+			{
+				@Override
+				public void write(final int b)
+				{
+					write(new byte[] { (byte) b }, 0, 1);
+				}
+
+				@Override
+				public void write(final byte[] b, final int off, final int len)
+				{
+					checkPermitFree(pool, "write", permitFree);
+					written.write(b, off, len);
+				}
+
+				@Override
+				public void close()
+				{
+					checkPermitFree(pool, "close", permitFree);
+				}
+			};
+		};
+		final byte[] content = new byte[100];
+		for (int i = 0; i < content.length; i++)
+		{
+			content[i] = (byte) i;
+		}
+
+		// When
+		pool.acquirePermit();
+		try (OutputStream out = new PermitReleasingTarget(target, pool, new byte[16]).open())
+		{
+			for (int i = 0; i < 50; i++)
+			{
+				out.write(content[i]);
+			}
+			out.write(content, 50, 10);
+			out.write(content, 60, 40);
+		}
+
+		// Then
+		assertFalse(pool.tryAcquirePermit(), "The permit should be taken back afterwards");
+		assertArrayEquals(content, written.toByteArray());
+		assertFalse(permitFree.contains("open: taken") || permitFree.contains("write: taken") || permitFree.contains("close: taken"), permitFree.toString());
+	}
+
+	private static void checkPermitFree(final FormatterPool pool, final String action, final List<String> result)
+	{
+		if (pool.tryAcquirePermit())
+		{
+			pool.releasePermit();
+			result.add(action + ": free");
+		}
+		else
+		{
+			result.add(action + ": taken");
+		}
+	}
+}
@@ -1,17 +1,29 @@
 package org.jurr.pipetableformatter;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertIterableEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 
 class PipeTableFormatterTest
 {
@@ -34,6 +46,300 @@ class PipeTableFormatterTest
 		assertIterableEquals(expected, actual);
 	}
 
+	@Test
+	void testPipeTablesInMemoryMappedFile(@TempDir final Path tempDir) throws IOException
+	{
+		// Given
+		final Path sourceFile = Paths.get("src/test/resources/org/jurr/pipetableformatter/TableFormatterTest/pipeTablesInFile/input.txt");
+		final Path expectedFile = sourceFile.resolveSibling("expected.txt");
+		final Path testFile = tempDir.resolve("output.txt");
+		Files.copy(sourceFile, testFile);
+		final List<String> expected = Files.readAllLines(expectedFile, StandardCharsets.UTF_8);
+		final PipeTableFormatter pipeTableFormatter = new PipeTableFormatter();
+		pipeTableFormatter.setMemoryMapThreshold(0);
+
+		// When
+		pipeTableFormatter.pipeTablesInFile(testFile);
+		final FileTime firstRun = Files.getLastModifiedTime(testFile);
+		pipeTableFormatter.pipeTablesInFile(testFile);
+
+		// Then
+		final List<String> actual = Files.readAllLines(testFile, StandardCharsets.UTF_8);
+		assertIterableEquals(expected, actual);
+		assertEquals(firstRun, Files.getLastModifiedTime(testFile), "A formatted file should not be rewritten");
+		try (Stream<Path> files = Files.list(tempDir))
+		{
+			assertEquals(1, files.count(), "Temporary files should be cleaned up");
+		}
+	}
+
+	@ParameterizedTest
+	@EnumSource(WriteStrategy.class)
+	void testWriteStrategy(final WriteStrategy writeStrategy, @TempDir final Path tempDir) throws IOException
+	{
+		// Given
+		final Path sourceFile = Paths.get("src/test/resources/org/jurr/pipetableformatter/TableFormatterTest/pipeTablesInFile/input.txt");
+		final Path expectedFile = sourceFile.resolveSibling("expected.txt");
+		final Path directory = Files.createDirectory(tempDir.resolve("stories"));
+		final Path testFile = directory.resolve("output.txt");
+		Files.copy(sourceFile, testFile);
+		final List<String> expected = Files.readAllLines(expectedFile, StandardCharsets.UTF_8);
+		final PipeTableFormatter pipeTableFormatter = new PipeTableFormatter();
+		pipeTableFormatter.setWriteStrategy(writeStrategy);
+		pipeTableFormatter.setSync(true);
+		pipeTableFormatter.setCache(FormatCache.load(tempDir.resolve("cache")));
+
+		// When
+		pipeTableFormatter.pipeTablesInFile(testFile);
+		Files.setLastModifiedTime(testFile, FileTime.fromMillis(0));
+		pipeTableFormatter.pipeTablesInFile(testFile);
+
+		// Then
+		final List<String> actual = Files.readAllLines(testFile, StandardCharsets.UTF_8);
+		assertIterableEquals(expected, actual);
+		assertEquals(1, pipeTableFormatter.getStats().getFilesSkipped(), "The cache should know the content that was written");
+		try (Stream<Path> files = Files.list(directory))
+		{
+			assertEquals(1, files.count(), "Temporary files should be cleaned up");
+		}
+	}
+
+	@Test
+	void testReflinkWriteStrategyForLargeFile(@TempDir final Path tempDir) throws IOException
+	{
+		// Given
+		final StringBuilder identical = new StringBuilder();
+		while (identical.length() <= Reflinks.MIN_IDENTICAL_BYTES)
+		{
+			identical.append("Just a line of text, that is not a table.").append(System.lineSeparator());
+		}
+		final Path directory = Files.createDirectory(tempDir.resolve("stories"));
+		final Path testFile = directory.resolve("large.story");
+		Files.write(testFile, (identical + "|a|b|" + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+		final PipeTableFormatter pipeTableFormatter = new PipeTableFormatter();
+		pipeTableFormatter.setWriteStrategy(WriteStrategy.REFLINK);
+
+		// When
+		pipeTableFormatter.pipeTablesInFile(testFile);
+
+		// Then
+		assertEquals(identical + "| a | b |" + System.lineSeparator(), new String(Files.readAllBytes(testFile), StandardCharsets.UTF_8));
+		try (Stream<Path> files = Files.list(directory))
+		{
+			assertEquals(1, files.count(), "Temporary files (also those to find out whether reflinks are supported) should be cleaned up");
+		}
+	}
+
+	@Test
+	void testPipeTablesInDirectories(@TempDir final Path tempDir) throws IOException
+	{
+		// Given
+		final PipeTableFormatter pipeTableFormatter = new PipeTableFormatter();
+		pipeTableFormatter.setThreads(3);
+
+		// When / Then
+		checkPipeTablesInDirectories(tempDir, pipeTableFormatter);
+	}
+
+	@Test
+	void testPipeTablesInDirectoriesOnVirtualThreads(@TempDir final Path tempDir) throws IOException
+	{
+		assumeTrue(VirtualThreads.isSupported(), "Virtual threads need Java 21 or newer");
+
+		// Given
+		final PipeTableFormatter pipeTableFormatter = new PipeTableFormatter();
+		pipeTableFormatter.setThreads(2);
+		pipeTableFormatter.setVirtualThreads(50);
+
+		// When / Then
+		checkPipeTablesInDirectories(tempDir, pipeTableFormatter);
+	}
+
+	private static void checkPipeTablesInDirectories(final Path tempDir, final PipeTableFormatter pipeTableFormatter) throws IOException
+	{
+		final Path sourceFile = Paths.get("src/test/resources/org/jurr/pipetableformatter/TableFormatterTest/pipeTablesInFile/input.txt");
+		final Path expectedFile = sourceFile.resolveSibling("expected.txt");
+		final List<String> expected = Files.readAllLines(expectedFile, StandardCharsets.UTF_8);
+		final List<Path> directories = new ArrayList<>();
+		for (int i = 0; i < 5; i++)
+		{
+			final Path directory = Files.createDirectories(tempDir.resolve("directory" + i).resolve("subdirectory"));
+			for (int j = 0; j < 20; j++)
+			{
+				Files.copy(sourceFile, directory.resolve("test" + j + ".story"));
+			}
+			Files.copy(sourceFile, directory.resolve("not-a-story.txt"));
+			directories.add(directory.getParent());
+		}
+
+		pipeTableFormatter.pipeTablesInDirectories(directories, "*.story");
+
+		try (Stream<Path> files = Files.walk(tempDir))
+		{
+			for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator)
+			{
+				final List<String> actual = Files.readAllLines(file, StandardCharsets.UTF_8);
+				if (file.toString().endsWith(".story"))
+				{
+					assertIterableEquals(expected, actual, file.toString());
+				}
+				else
+				{
+					assertIterableEquals(Files.readAllLines(sourceFile, StandardCharsets.UTF_8), actual, file.toString());
+				}
+			}
+		}
+	}
+
+	@Test
+	void testCheck(@TempDir final Path tempDir) throws IOException
+	{
+		// Given
+		final String content = "Some text" + System.lineSeparator()
+				+ "| formatted | table |" + System.lineSeparator()
+				+ "More text" + System.lineSeparator()
+				+ "|not|formatted|" + System.lineSeparator()
+				+ "|table|!|" + System.lineSeparator();
+		final Path testFile = tempDir.resolve("test.story");
+		Files.write(testFile, content.getBytes(StandardCharsets.UTF_8));
+		final Map<Path, List<LineRange>> unformattedFiles = new ConcurrentHashMap<>();
+		final PipeTableFormatter pipeTableFormatter = new PipeTableFormatter();
+		pipeTableFormatter.setCheck(true);
+		pipeTableFormatter.setUnformattedFileListener(unformattedFiles::put);
+
+		// When
+		final boolean formatted = pipeTableFormatter.pipeTablesInFile(testFile);
+
+		// Then
+		assertFalse(formatted);
+		assertEquals(Collections.singletonMap(testFile, Collections.singletonList(new LineRange(4, 5))), unformattedFiles);
+		assertEquals(content, new String(Files.readAllBytes(testFile), StandardCharsets.UTF_8), "Checking should not change the file");
+		try (Stream<Path> files = Files.list(tempDir))
+		{
+			assertEquals(1, files.count(), "Checking should not leave temporary files");
+		}
+	}
+
+	@Test
+	void testFailFastWithoutCheckFormatsEveryFile(@TempDir final Path tempDir) throws IOException
+	{
+		// Given
+		for (int i = 0; i < 6; i++)
+		{
+			Files.write(tempDir.resolve("test" + i + ".story"), "|a|b|\n|cc|d|\n".getBytes(StandardCharsets.UTF_8));
+		}
+		final PipeTableFormatter pipeTableFormatter = new PipeTableFormatter();
+		pipeTableFormatter.setThreads(1);
+		pipeTableFormatter.setFailFast(true);
+
+		// When
+		pipeTableFormatter.pipeTablesInDirectories(Collections.singletonList(tempDir), "*.story");
+
+		// Then
+		assertEquals(6, pipeTableFormatter.getStats().getFilesRewritten(), "Without checking, fail fast should not stop formatting");
+	}
+
+	@Test
+	void testStats(@TempDir final Path tempDir) throws IOException
+	{
+		// Given
+		final byte[] formatted = ("| a | b |" + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+		final byte[] unformatted = ("|a|b|" + System.lineSeparator() + "|c|d|" + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+		Files.write(tempDir.resolve("formatted.story"), formatted);
+		Files.write(tempDir.resolve("unformatted.story"), unformatted);
+		Files.write(tempDir.resolve("ignored.txt"), unformatted);
+		final PipeTableFormatter pipeTableFormatter = new PipeTableFormatter();
+
+		// When
+		pipeTableFormatter.pipeTablesInDirectories(Collections.singletonList(tempDir), "*.story");
+
+		// Then
+		final FormatStats stats = pipeTableFormatter.getStats();
+		assertEquals(2, stats.getFilesScanned());
+		assertEquals(0, stats.getFilesSkipped());
+		assertEquals(1, stats.getFilesUnchanged());
+		assertEquals(1, stats.getFilesRewritten());
+		assertEquals(formatted.length + unformatted.length, stats.getBytesRead());
+		assertEquals(Files.size(tempDir.resolve("unformatted.story")), stats.getBytesWritten());
+		assertEquals(2, stats.getTablesFormatted());
+		assertEquals(3, stats.getRowsFormatted());
+		assertTrue(stats.getLatencyP50Micros() <= stats.getLatencyP99Micros());
+		assertTrue(stats.getLatencyP99Micros() <= stats.getLatencyMaxMicros());
+	}
+
+	@Test
+	void testPipeTablesInGitChanges(@TempDir final Path tempDir) throws IOException, InterruptedException
+	{
+		assumeTrue(git(tempDir, "init", "--quiet"), "Needs a git binary");
+
+		// Given
+		final String unformatted = "|a|b|" + System.lineSeparator();
+		final String formatted = "| a | b |" + System.lineSeparator();
+		final Path committedFile = tempDir.resolve("committed.story");
+		final Path stagedFile = tempDir.resolve("staged.story");
+		final Path untrackedFile = tempDir.resolve("untracked.story");
+		Files.write(committedFile, unformatted.getBytes(StandardCharsets.UTF_8));
+		assertTrue(git(tempDir, "add", "committed.story"));
+		assertTrue(git(tempDir, "-c", "user.name=Test", "-c", "user.email=test@example.com", "commit", "--quiet", "-m", "Test"));
+		Files.write(stagedFile, unformatted.getBytes(StandardCharsets.UTF_8));
+		assertTrue(git(tempDir, "add", "staged.story"));
+		Files.write(untrackedFile, unformatted.getBytes(StandardCharsets.UTF_8));
+		final List<Path> directories = Collections.singletonList(tempDir);
+
+		// When
+		new PipeTableFormatter().pipeTablesInGitChanges(directories, "*.story", null);
+
+		// Then
+		assertEquals(unformatted, new String(Files.readAllBytes(committedFile), StandardCharsets.UTF_8));
+		assertEquals(formatted, new String(Files.readAllBytes(stagedFile), StandardCharsets.UTF_8));
+		assertEquals(unformatted, new String(Files.readAllBytes(untrackedFile), StandardCharsets.UTF_8));
+
+		// When
+		new PipeTableFormatter().pipeTablesInGitChanges(directories, "*.story", "HEAD");
+
+		// Then
+		assertEquals(unformatted, new String(Files.readAllBytes(committedFile), StandardCharsets.UTF_8));
+		assertEquals(formatted, new String(Files.readAllBytes(untrackedFile), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void testPipeTablesInGitChangesSkipsDeletedFiles(@TempDir final Path tempDir) throws IOException, InterruptedException
+	{
+		assumeTrue(git(tempDir, "init", "--quiet"), "Needs a git binary");
+
+		// Given
+		final String unformatted = "|a|b|" + System.lineSeparator();
+		final String formatted = "| a | b |" + System.lineSeparator();
+		final Path deletedFile = tempDir.resolve("x.story");
+		final Path stagedFile = tempDir.resolve("y.story");
+		Files.write(deletedFile, unformatted.getBytes(StandardCharsets.UTF_8));
+		Files.write(stagedFile, unformatted.getBytes(StandardCharsets.UTF_8));
+		assertTrue(git(tempDir, "add", "x.story", "y.story"));
+		Files.delete(deletedFile);
+
+		// When
+		new PipeTableFormatter().pipeTablesInGitChanges(Collections.singletonList(tempDir), "*.story", null);
+
+		// Then
+		assertFalse(Files.exists(deletedFile));
+		assertEquals(formatted, new String(Files.readAllBytes(stagedFile), StandardCharsets.UTF_8));
+	}
+
+	private static boolean git(final Path directory, final String... arguments) throws InterruptedException
+	{
+		final List<String> command = new ArrayList<>();
+		command.add("git");
+		command.addAll(Arrays.asList(arguments));
+		try
+		{
+			return new ProcessBuilder(command).directory(directory.toFile()).inheritIO().start().waitFor() == 0;
+		}
+		catch (IOException e)
+		{
+			return false;
+		}
+	}
+
 	@Test
 	void testPipeTablesInString()
 	{
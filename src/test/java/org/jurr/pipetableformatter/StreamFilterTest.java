@@ -0,0 +1,154 @@
+package org.jurr.pipetableformatter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class StreamFilterTest
+{
+	private static final String NL = System.lineSeparator();
+
+	@Test
+	void testSingleDocument() throws IOException
+	{
+		// Given
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		// When
+		new StreamFilter(input("Text\n|a|b|\r\n|cc|d|\nMore text"), output, StreamFilter.Framing.NONE).run();
+
+		// Then
+		assertEquals("Text" + NL + "| a  | b |" + NL + "| cc | d |" + NL + "More text" + NL, output.toString(StandardCharsets.UTF_8.name()));
+	}
+
+	@Test
+	void testNulSeparatedDocuments() throws IOException
+	{
+		// Given
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		final StreamFilter filter = new StreamFilter(input("|a|b|\0\0|cc|d|\n|e|f|"), output, StreamFilter.Framing.NUL);
+
+		// When
+		filter.run();
+
+		// Then
+		assertEquals("| a | b |" + NL + "\0\0| cc | d |" + NL + "| e  | f |" + NL + "\0", output.toString(StandardCharsets.UTF_8.name()));
+		assertEquals(3, filter.getDocuments());
+		assertEquals(2, filter.getTablesFormatted());
+	}
+
+	@Test
+	void testLengthPrefixedDocuments() throws IOException
+	{
+		// Given
+		final ByteArrayOutputStream framedInput = new ByteArrayOutputStream();
+		final DataOutputStream dataOutput = new DataOutputStream(framedInput);
+		for (String document : new String[] { "|a|b|", "", "|cc|d|\nNUL: \0" })
+		{
+			final byte[] bytes = document.getBytes(StandardCharsets.UTF_8);
+			dataOutput.writeInt(bytes.length);
+			dataOutput.write(bytes);
+		}
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+		// When
+		new StreamFilter(new ByteArrayInputStream(framedInput.toByteArray()), output, StreamFilter.Framing.LENGTH).run();
+
+		// Then
+		final DataInputStream result = new DataInputStream(new ByteArrayInputStream(output.toByteArray()));
+		assertEquals("| a | b |" + NL, readFramed(result));
+		assertEquals("", readFramed(result));
+		assertEquals("| cc | d |" + NL + "NUL: \0" + NL, readFramed(result));
+		assertEquals(-1, result.read());
+	}
+
+	@Test
+	void testTruncatedLengthPrefixedDocument()
+	{
+		// Given
+		final byte[] framedInput = { 0, 0, 0, 10, '|', 'a', '|' };
+
+		// When / Then
+		assertThrows(EOFException.class, () -> new StreamFilter(new ByteArrayInputStream(framedInput), new ByteArrayOutputStream(), StreamFilter.Framing.LENGTH).run());
+	}
+
+	/**
+	 * Like an editor or git would, we only send the next document once we got the previous one back.
+	 */
+	@Test
+	void testEveryDocumentIsWrittenBeforeTheNextIsRead() throws Exception
+	{
+		// Given
+		final PipedOutputStream toFilter = new PipedOutputStream();
+		final PipedInputStream filterInput = new PipedInputStream(toFilter);
+		final PipedOutputStream filterOutput = new PipedOutputStream();
+		final PipedInputStream fromFilter = new PipedInputStream(filterOutput);
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+		try
+		{
+			// When
+			final Future<?> result = executor.submit(() -> {
+				try (OutputStream out = filterOutput)
+				{
+					new StreamFilter(filterInput, out, StreamFilter.Framing.NUL).run();
+				}
+				return null;
+			});
+
+			// Then
+			toFilter.write("|a|b|\0".getBytes(StandardCharsets.UTF_8));
+			toFilter.flush();
+			assertEquals("| a | b |" + NL, readUntilNul(fromFilter));
+
+			toFilter.write("|cc|d|\0".getBytes(StandardCharsets.UTF_8));
+			toFilter.close();
+			assertEquals("| cc | d |" + NL, readUntilNul(fromFilter));
+			result.get(10, TimeUnit.SECONDS);
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	private static InputStream input(final String text)
+	{
+		return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String readFramed(final DataInputStream input) throws IOException
+	{
+		final byte[] bytes = new byte[input.readInt()];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static String readUntilNul(final InputStream input) throws IOException
+	{
+		final ByteArrayOutputStream result = new ByteArrayOutputStream();
+		int b;
+		while ((b = input.read()) > 0)
+		{
+			result.write(b);
+		}
+		return result.toString(StandardCharsets.UTF_8.name());
+	}
+}
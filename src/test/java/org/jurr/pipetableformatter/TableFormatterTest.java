@@ -6,6 +6,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.StringReader;
+import java.io.StringWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
@@ -47,6 +48,17 @@ class TableFormatterTest
 		out("|-- x | x |");
 	}
 
+	@Test
+	void testTableCommentsAlignWithOtherRows()
+	{
+		in("|a|bb|");
+		in("|--x|y|");
+		in("|abcdef|z|");
+		out("| a      | bb |");
+		out("|-- x    | y  |");
+		out("| abcdef | z  |");
+	}
+
 	@Test
 	void testContentsThatLooksLikeTableComment()
 	{
@@ -144,6 +156,16 @@ class TableFormatterTest
 		out("Some other text");
 	}
 
+	@Test
+	void testLineTerminators()
+	{
+		in.append("|a|b|\r\n|cc|d|\rSome text\nSome other text");
+		out("| a  | b |");
+		out("| cc | d |");
+		out("Some text");
+		out("Some other text");
+	}
+
 	@BeforeEach
 	private void setup()
 	{
@@ -179,7 +201,20 @@ class TableFormatterTest
 		tableFormatter.format(sr);
 		tableFormatter.close();
 
-		final String[] actual = new String(baos.toByteArray(), StandardCharsets.UTF_8).split(System.lineSeparator());
+		check(new String(baos.toByteArray(), StandardCharsets.UTF_8));
+
+		// A tiny buffer, so lines do not fit and need to be carried over to the next read
+		final StringWriter sw = new StringWriter();
+		final TableFormatter writerTableFormatter = new TableFormatter(sw, 3);
+		writerTableFormatter.format(in, 0, in.length());
+		writerTableFormatter.close();
+
+		check(sw.toString());
+	}
+
+	private void check(final String output)
+	{
+		final String[] actual = output.split(System.lineSeparator());
 
 		assertEquals(expected.size(), actual.length, "The number of lines differs");
 
@@ -188,4 +223,4 @@ class TableFormatterTest
 			assertEquals(expected.get(i), actual[i]);
 		}
 	}
-}
\ No newline at end of file
+}
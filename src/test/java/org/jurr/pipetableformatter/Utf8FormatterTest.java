@@ -0,0 +1,213 @@
+package org.jurr.pipetableformatter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class Utf8FormatterTest
+{
+	@ParameterizedTest
+	@ValueSource(strings = { //
+			"", //
+			"No tables here\nAt all\n", //
+			"No trailing line terminator", //
+			"|a|b|\n|cc|d|\n", //
+			"|a|b|\n|cc|d|", //
+			"Text\r\n|a|b|\r\n|cc|d|\r\nMore text\r\n", //
+			"Text\r|a|b|\r|cc|d|\rMore text\r", //
+			"Mixed\n\r\n\r|x|y|\r\n\n", //
+			"\uFEFF|bom|before|\n|the|table|\n", //
+			"Naïve café ☃\n| één | 😀 |\n| twee | drie |\n", //
+			"  !--  |   x  |   x  |  \n|  !-- | y |\n", //
+			"One pipe | only\n|||\n||||\nText\n", //
+	})
+	void testSameOutputAsTableFormatter(final String input) throws IOException
+	{
+		// Given
+		final StringWriter expected = new StringWriter();
+		try (TableFormatter tableFormatter = new TableFormatter(expected))
+		{
+			tableFormatter.format(new StringReader(input));
+		}
+
+		// When
+		final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		new Utf8Formatter().format(ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8)), actual);
+		final ByteArrayOutputStream actualStreamed = new ByteArrayOutputStream();
+		final Utf8Formatter streamingFormatter = new Utf8Formatter();
+		streamingFormatter.setStreamingThreshold(0);
+		streamingFormatter.format(ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8)), actualStreamed);
+
+		final ByteArrayOutputStream actualParallel = new ByteArrayOutputStream();
+		final Utf8Formatter parallelFormatter = new Utf8Formatter();
+		parallelFormatter.setParallel(new FormatterPool(2), 0);
+		parallelFormatter.format(ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8)), actualParallel);
+
+		// Then
+		assertEquals(expected.toString(), new String(actual.toByteArray(), StandardCharsets.UTF_8));
+		assertEquals(expected.toString(), new String(actualStreamed.toByteArray(), StandardCharsets.UTF_8), "Formatting tables one row at a time should give the same output");
+		assertEquals(expected.toString(), new String(actualParallel.toByteArray(), StandardCharsets.UTF_8), "Formatting tables in parallel should give the same output");
+	}
+
+	@Test
+	void testReusedFormatterGivesSameOutput() throws IOException
+	{
+		// Given
+		final Utf8Formatter formatter = new Utf8Formatter();
+		formatter.format(ByteBuffer.wrap("|a very wide cell|b|c|d|\n|e|f|\nText\n".getBytes(StandardCharsets.UTF_8)), new ByteArrayOutputStream());
+		final byte[] input = "Text\n|x|yy|\n|zzz|\n".getBytes(StandardCharsets.UTF_8);
+		final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		new Utf8Formatter().format(ByteBuffer.wrap(input), expected);
+
+		// When
+		final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		formatter.format(ByteBuffer.wrap(input), actual);
+
+		// Then
+		assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+		assertEquals(2, formatter.getTablesFormatted());
+	}
+
+	@ParameterizedTest
+	@ValueSource(ints = { 0, Utf8Formatter.DEFAULT_STREAMING_THRESHOLD })
+	void testTablesFormattedInParallelAreWrittenInOrder(final int streamingThreshold) throws IOException
+	{
+		// Given
+		final StringBuilder input = new StringBuilder();
+		final StringBuilder expected = new StringBuilder();
+		final List<LineRange> expectedChangedTables = new ArrayList<>();
+		for (int table = 0; table < 1000; table++)
+		{
+			input.append("Table ").append(table).append(System.lineSeparator());
+			expected.append("Table ").append(table).append(System.lineSeparator());
+			if (table % 3 == 0)
+			{
+				input.append("|").append(table).append("|x|\r\n|y|z|\r");
+				expectedChangedTables.add(new LineRange(table * 3 + 2, table * 3 + 3));
+			}
+			else
+			{
+				input.append("| ").append(table).append(" | x |").append(System.lineSeparator()).append("| y").append(String.valueOf(table).substring(1).replaceAll(".", " ")).append(" | z |").append(System.lineSeparator());
+			}
+			expected.append("| ").append(table).append(" | x |").append(System.lineSeparator()).append("| y").append(String.valueOf(table).substring(1).replaceAll(".", " ")).append(" | z |").append(System.lineSeparator());
+		}
+		final List<LineRange> changedTables = new ArrayList<>();
+		final FormatterPool pool = new FormatterPool(4);
+		final Utf8Formatter formatter = new Utf8Formatter();
+		formatter.setParallel(pool, 0);
+		formatter.setStreamingThreshold(streamingThreshold);
+		formatter.setChangedTables(changedTables);
+
+		// When
+		final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		try
+		{
+			formatter.format(ByteBuffer.wrap(input.toString().getBytes(StandardCharsets.UTF_8)), actual);
+		}
+		finally
+		{
+			pool.getForkJoinPool().shutdown();
+		}
+
+		// Then
+		assertEquals(expected.toString(), new String(actual.toByteArray(), StandardCharsets.UTF_8));
+		assertEquals(expectedChangedTables, changedTables);
+		assertEquals(1000, formatter.getTablesFormatted());
+		assertEquals(2000, formatter.getRowsFormatted());
+	}
+
+	@Test
+	void testTablesAreNotForkedWithoutPermits() throws IOException
+	{
+		// Given
+		final StringBuilder input = new StringBuilder();
+		final StringBuilder expected = new StringBuilder();
+		for (int table = 0; table < 100; table++)
+		{
+			input.append("Text").append(System.lineSeparator()).append("|a|bb|").append(System.lineSeparator()).append("|ccc|d|").append(System.lineSeparator());
+			expected.append("Text").append(System.lineSeparator()).append("| a   | bb |").append(System.lineSeparator()).append("| ccc | d  |").append(System.lineSeparator());
+		}
+		final FormatterPool pool = new FormatterPool(1);
+		final Utf8Formatter formatter = new Utf8Formatter();
+		formatter.setParallel(pool, 0);
+
+		// When
+		final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		pool.acquirePermit();
+		try
+		{
+			formatter.format(ByteBuffer.wrap(input.toString().getBytes(StandardCharsets.UTF_8)), actual);
+		}
+		finally
+		{
+			pool.releasePermit();
+		}
+
+		// Then
+		assertEquals(expected.toString(), new String(actual.toByteArray(), StandardCharsets.UTF_8));
+		assertEquals(0, pool.getForkJoinPool().getPoolSize(), "With the only permit taken, no table should be formatted in the fork-join pool");
+		assertEquals(100, formatter.getTablesFormatted());
+	}
+
+	@Test
+	void testStreamedTableIsComparedPerChunk() throws IOException
+	{
+		// Given
+		final StringBuilder formattedTable = new StringBuilder();
+		for (int row = 0; row < 20_000; row++)
+		{
+			formattedTable.append("| row | ").append(String.format("%05d", row)).append(" |").append(System.lineSeparator());
+		}
+		final String input = "Text" + System.lineSeparator() + formattedTable + "Text" + System.lineSeparator() + formattedTable.toString().replace("| 12345 |", "|12345|");
+		final List<LineRange> changedTables = new ArrayList<>();
+		final Utf8Formatter formatter = new Utf8Formatter();
+		formatter.setStreamingThreshold(1024);
+		formatter.setChangedTables(changedTables);
+
+		// When
+		final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		formatter.format(ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8)), actual);
+
+		// Then
+		final String expected = "Text" + System.lineSeparator() + formattedTable + "Text" + System.lineSeparator() + formattedTable;
+		assertEquals(expected, new String(actual.toByteArray(), StandardCharsets.UTF_8));
+		assertEquals(Collections.singletonList(new LineRange(20_003, 40_002)), changedTables);
+		assertEquals(2, formatter.getTablesFormatted());
+		assertEquals(40_000, formatter.getRowsFormatted());
+	}
+
+	@ParameterizedTest
+	@ValueSource(booleans = { true, false })
+	void testMalformedTextOutsideTablesIsCopied(final boolean direct) throws IOException
+	{
+		// Given
+		assumeTrue("\n".equals(System.lineSeparator()), "The expected output uses \\n as line separator");
+		final byte[] malformed = { 'a', (byte) 0xC3, 'b', '\n', '|', 'x', '|', '\n' };
+		final byte[] expected = { 'a', (byte) 0xC3, 'b', '\n', '|', ' ', 'x', ' ', '|', '\n' };
+		final ByteBuffer input = direct ? ByteBuffer.allocateDirect(malformed.length) : ByteBuffer.allocate(malformed.length);
+		input.put(malformed);
+		((Buffer) input).flip();
+
+		// When
+		final ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		new Utf8Formatter().format(input, actual);
+
+		// Then
+		assertArrayEquals(expected, actual.toByteArray());
+	}
+}
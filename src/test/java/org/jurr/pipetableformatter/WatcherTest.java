@@ -0,0 +1,161 @@
+package org.jurr.pipetableformatter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class WatcherTest
+{
+	private static final String UNFORMATTED = "|a|b|" + System.lineSeparator();
+	private static final String FORMATTED = "| a | b |" + System.lineSeparator();
+
+	private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+	@ParameterizedTest
+	@ValueSource(booleans = { false, true })
+	void testWatch(final boolean polling, @TempDir final Path tempDir) throws IOException, InterruptedException
+	{
+		// Given
+		final Path existingFile = tempDir.resolve("existing.story");
+		Files.write(existingFile, UNFORMATTED.getBytes(StandardCharsets.UTF_8));
+		final Watcher watcher = new Watcher(Collections.singletonList(tempDir), "*.story");
+		watcher.setPolling(polling);
+		watcher.setPollIntervalMillis(10);
+		watcher.setDebounceMillis(10);
+		final Thread watcherThread = new Thread(watcher);
+		watcherThread.start();
+
+		try
+		{
+			assertTrue(watcher.awaitReady(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+			// When
+			final Path newFile = Files.createDirectories(tempDir.resolve("subdirectory")).resolve("new.story");
+			Files.write(newFile, UNFORMATTED.getBytes(StandardCharsets.UTF_8));
+
+			// Then
+			assertEquals(FORMATTED, waitForContent(newFile, FORMATTED));
+			assertEquals(UNFORMATTED, read(existingFile), "Only changes should be formatted");
+		}
+		finally
+		{
+			watcher.stop();
+			watcherThread.join();
+		}
+	}
+
+	@ParameterizedTest
+	@ValueSource(booleans = { false, true })
+	void testWatchSkipsPrunedDirectories(final boolean polling, @TempDir final Path tempDir) throws IOException, InterruptedException
+	{
+		// Given
+		final Path gitFile = Files.createDirectories(tempDir.resolve(".git")).resolve("a.story");
+		final Path ignoredFile = Files.createDirectories(tempDir.resolve("target")).resolve("b.story");
+		final Path excludedFile = Files.createDirectories(tempDir.resolve("generated")).resolve("c.story");
+		Files.write(tempDir.resolve(".gitignore"), "target/".getBytes(StandardCharsets.UTF_8));
+		final Watcher watcher = new Watcher(Collections.singletonList(tempDir), new FileMasks(Collections.singletonList("*.story"), Collections.singletonList("generated/**")));
+		watcher.setPolling(polling);
+		watcher.setPollIntervalMillis(10);
+		watcher.setDebounceMillis(10);
+		final Thread watcherThread = new Thread(watcher);
+		watcherThread.start();
+
+		try
+		{
+			assertTrue(watcher.awaitReady(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+			// When
+			for (Path file : Arrays.asList(gitFile, ignoredFile, excludedFile))
+			{
+				Files.write(file, UNFORMATTED.getBytes(StandardCharsets.UTF_8));
+			}
+			final Path newFile = tempDir.resolve("new.story");
+			Files.write(newFile, UNFORMATTED.getBytes(StandardCharsets.UTF_8));
+
+			// Then
+			assertEquals(FORMATTED, waitForContent(newFile, FORMATTED));
+			assertEquals(UNFORMATTED, read(gitFile));
+			assertEquals(UNFORMATTED, read(ignoredFile));
+			assertEquals(UNFORMATTED, read(excludedFile));
+		}
+		finally
+		{
+			watcher.stop();
+			watcherThread.join();
+		}
+	}
+
+	@ParameterizedTest
+	@ValueSource(booleans = { false, true })
+	void testWatchForgetsDeletedFiles(final boolean polling, @TempDir final Path tempDir) throws IOException, InterruptedException
+	{
+		// Given
+		final Watcher watcher = new Watcher(Collections.singletonList(tempDir), "*.story");
+		watcher.setPolling(polling);
+		watcher.setPollIntervalMillis(10);
+		watcher.setDebounceMillis(10);
+		final Thread watcherThread = new Thread(watcher);
+		watcherThread.start();
+		final Path movedAway = Files.createTempDirectory("moved-away");
+
+		try
+		{
+			assertTrue(watcher.awaitReady(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+			final Path file = tempDir.resolve("file.story");
+			final Path subdirectory = Files.createDirectories(tempDir.resolve("subdirectory"));
+			final Path fileInSubdirectory = subdirectory.resolve("file.story");
+			Files.write(file, UNFORMATTED.getBytes(StandardCharsets.UTF_8));
+			Files.write(fileInSubdirectory, UNFORMATTED.getBytes(StandardCharsets.UTF_8));
+			assertEquals(FORMATTED, waitForContent(file, FORMATTED));
+			assertEquals(FORMATTED, waitForContent(fileInSubdirectory, FORMATTED));
+
+			// When
+			Files.delete(file);
+			Files.move(subdirectory, movedAway.resolve("subdirectory"));
+
+			// Then
+			final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+			while (!watcher.getFormattedFiles().isEmpty() && System.currentTimeMillis() < deadline)
+			{
+				Thread.sleep(10);
+			}
+			assertEquals(Collections.emptySet(), watcher.getFormattedFiles());
+		}
+		finally
+		{
+			watcher.stop();
+			watcherThread.join();
+			Files.deleteIfExists(movedAway.resolve("subdirectory/file.story"));
+			Files.deleteIfExists(movedAway.resolve("subdirectory"));
+			Files.delete(movedAway);
+		}
+	}
+
+	static String waitForContent(final Path file, final String expected) throws IOException, InterruptedException
+	{
+		final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		String content = read(file);
+		while (!content.equals(expected) && System.currentTimeMillis() < deadline)
+		{
+			Thread.sleep(10);
+			content = read(file);
+		}
+		return content;
+	}
+
+	private static String read(final Path file) throws IOException
+	{
+		return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+	}
+}